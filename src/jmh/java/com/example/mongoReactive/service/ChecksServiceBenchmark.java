@@ -0,0 +1,107 @@
+package com.example.mongoReactive.service;
+
+import com.example.mongoReactive.util.DocumentBuilder;
+import com.example.mongoReactive.util.MergePlan;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+
+/**
+ * Бенчмарки JMH основных этапов преобразования чека. Входные данные: src/test/data/check.xml и сгенерированные
+ * чеки с 1, 100 и 10000 позициями. Запуск: mvn -Pbenchmark verify -DskipTests, результаты (пропускная способность,
+ * среднее время и объём выделенной памяти на операцию, gc.alloc.rate.norm) сохраняются в target/jmh-result.json.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksServiceBenchmark {
+	@Param({"check.xml", "1", "100", "10000"})
+	public String input;
+
+	private final ChecksService checksService = new ChecksService();
+	private final ValueReceiver countReceiver = new ValueReceiver() {
+		public ValueReceiver receive(Context ctx) {
+			return this;
+		}
+	};
+	private String xml;
+	private JsonNode jsonNode;
+	private Document template;
+	private MergePlan mergePlan;
+	private Document target;
+
+	@Setup
+	public void setup() throws Exception {
+		xml = input.endsWith(".xml")
+				? new String(Files.readAllBytes(Paths.get("src/test/data", input)), StandardCharsets.UTF_8)
+				: generateCheck(Integer.parseInt(input));
+		jsonNode = XML2Node(xml);
+		template = checksService.xml2Document(xml, "benchmark", null).get("check", Document.class);
+		template.append("template_only", new Document("value", 1));
+		mergePlan = MergePlan.compile(template);
+		// После первого применения шаблона все его атрибуты присутствуют в документе, замеряется проверка наличия.
+		target = checksService.xml2Document(xml, "benchmark", null).get("check", Document.class);
+	}
+
+	@Benchmark
+	public JsonNode xml2Node() throws Exception {
+		return XML2Node(xml);
+	}
+
+	@Benchmark
+	public Object forEachNodeJson() throws Exception {
+		return forEachNode(jsonNode, "benchmark", countReceiver, null);
+	}
+
+	@Benchmark
+	public Document xml2Document() throws Exception {
+		return checksService.xml2Document(xml, "benchmark", null);
+	}
+
+	@Benchmark
+	public RawBsonDocument xml2RawDocument() throws Exception {
+		return checksService.xml2RawDocument(xml, "benchmark", null);
+	}
+
+	@Benchmark
+	public Document appendNotExistsInDocument() {
+		return DocumentBuilder.appendNotExistsInDocument(template, target);
+	}
+
+	@Benchmark
+	public Document mergePlanApply() {
+		return mergePlan.apply(target);
+	}
+
+	/**
+	 * Формирует чек с заданным количеством позиций.
+	 */
+	static String generateCheck(int items) {
+		StringBuilder xml = new StringBuilder("<main><check><timestamp>11.10.2021 18:26:14</timestamp>")
+				.append("<external_id>4f444abd-6b15-495f-8799-fa5601949381</external_id><is_bso>false</is_bso>")
+				.append("<receipt><operation>sell</operation><client><email>test@test.ru</email></client>")
+				.append("<company><email>test@test.ru</email><sno>osn</sno><inn>3773737737</inn>")
+				.append("<payment_address>HTTPS://GOSPAY.RU</payment_address></company><items>");
+		for (int i = 0; i < items; i++) {
+			xml.append("<item><name>Item ").append(i).append("</name><price>100.00</price><quantity>1</quantity>")
+					.append("<sum>100.00</sum><measurement_unit>pcs</measurement_unit>")
+					.append("<payment_method>full_payment</payment_method><payment_object>service</payment_object>")
+					.append("<vat><type>vat20</type><sum>16.67</sum></vat></item>");
+		}
+		return xml.append("</items><payments><payment><type>1</type><sum>").append(items * 100).append(".00</sum>")
+				.append("</payment></payments><vats><vat><type>vat20</type><sum>").append(items * 16.67)
+				.append("</sum></vat></vats><total>").append(items * 100).append(".00</total>")
+				.append("<cashier>Cashier</cashier></receipt></check></main>").toString();
+	}
+}
@@ -0,0 +1,132 @@
+package com.example.mongoReactive.loadtest;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Генератор синтетических чеков в формате XML, совпадающем с src/test/data/check.xml.
+ * Количество позиций и оплат выбирается равномерно из заданных диапазонов, тип оплаты - по весам смеси оплат,
+ * external_id с заданной вероятностью повторяет один из недавно сгенерированных.
+ */
+public class CheckGenerator {
+	private static final int RECENT_IDS = 1024;
+	private static final String[] NAMES = {"Оплата услуги", "Товар", "Доставка", "Подписка"};
+	private static final String[] UNITS = {"Ед.", "шт", "кг"};
+
+	private final Random random;
+	private final int minItems;
+	private final int maxItems;
+	private final int minPayments;
+	private final int maxPayments;
+	private final String[] paymentTypes;
+	private final int[] paymentWeights;
+	private final int paymentWeightSum;
+	private final double externalIdRepeatRate;
+	private final String[] recentIds = new String[RECENT_IDS];
+	private int recentCount;
+
+	/**
+	 * @param seed начальное значение генератора случайных чисел
+	 * @param items диапазон количества позиций, например "1-20"
+	 * @param payments диапазон количества оплат, например "1-2"
+	 * @param paymentMix типы оплат с весами, например "1:80,2:20"
+	 * @param externalIdRepeatRate доля чеков с повторяющимся external_id
+	 */
+	public CheckGenerator(long seed, String items, String payments, String paymentMix, double externalIdRepeatRate) {
+		this.random = new Random(seed);
+		int[] itemRange = parseRange(items);
+		this.minItems = itemRange[0];
+		this.maxItems = itemRange[1];
+		int[] paymentRange = parseRange(payments);
+		this.minPayments = paymentRange[0];
+		this.maxPayments = paymentRange[1];
+		String[] mix = paymentMix.split(",");
+		this.paymentTypes = new String[mix.length];
+		this.paymentWeights = new int[mix.length];
+		int sum = 0;
+		for (int i = 0; i < mix.length; i++) {
+			String[] typeWeight = mix[i].trim().split(":");
+			paymentTypes[i] = typeWeight[0];
+			paymentWeights[i] = typeWeight.length > 1 ? Integer.parseInt(typeWeight[1]) : 1;
+			sum += paymentWeights[i];
+		}
+		this.paymentWeightSum = sum;
+		this.externalIdRepeatRate = externalIdRepeatRate;
+	}
+
+	public synchronized String next() {
+		int items = between(minItems, maxItems);
+		long[] sums = new long[items];
+		long total = 0;
+		StringBuilder xml = new StringBuilder(512 + items * 400)
+				.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><main><check>")
+				.append("<timestamp>").append(String.format("%02d.%02d.2021 %02d:%02d:%02d", between(1, 28),
+						between(1, 12), between(0, 23), between(0, 59), between(0, 59))).append("</timestamp>")
+				.append("<external_id>").append(externalId()).append("</external_id>")
+				.append("<is_bso>false</is_bso><receipt><operation>sell</operation>")
+				.append("<client><email>client").append(random.nextInt(100_000)).append("@test.ru</email></client>")
+				.append("<company><email>test@test.ru</email><sno>osn</sno><inn>3773737737</inn>")
+				.append("<payment_address>HTTPS://GOSPAY.RU</payment_address></company><items>");
+		for (int i = 0; i < items; i++) {
+			long price = between(100, 1_000_000);
+			int quantity = between(1, 5);
+			sums[i] = price * quantity;
+			total += sums[i];
+			xml.append("<item><name>").append(NAMES[random.nextInt(NAMES.length)]).append("</name>")
+					.append("<price>").append(money(price)).append("</price>")
+					.append("<quantity>").append(quantity).append("</quantity>")
+					.append("<sum>").append(money(sums[i])).append("</sum>")
+					.append("<measurement_unit>").append(UNITS[random.nextInt(UNITS.length)]).append("</measurement_unit>")
+					.append("<payment_method>full_payment</payment_method><payment_object>service</payment_object>")
+					.append("<vat><type>vat20</type><sum>").append(money(sums[i] / 6)).append("</sum></vat></item>");
+		}
+		xml.append("</items><payments>");
+		int payments = Math.min(between(minPayments, maxPayments), Math.max(1, items));
+		long rest = total;
+		for (int i = 0; i < payments; i++) {
+			long sum = i == payments - 1 ? rest : rest / (payments - i);
+			rest -= sum;
+			xml.append("<payment><type>").append(paymentType()).append("</type><sum>").append(money(sum))
+					.append("</sum></payment>");
+		}
+		xml.append("</payments><vats>");
+		for (long sum : sums) {
+			xml.append("<vat><type>vat20</type><sum>").append(money(sum / 6)).append("</sum></vat>");
+		}
+		return xml.append("</vats><total>").append(money(total)).append("</total>")
+				.append("<cashier>Кассир ").append(random.nextInt(100)).append("</cashier>")
+				.append("</receipt></check></main>").toString();
+	}
+
+	private String externalId() {
+		if (recentCount > 0 && random.nextDouble() < externalIdRepeatRate) {
+			return recentIds[random.nextInt(Math.min(recentCount, RECENT_IDS))];
+		}
+		String id = new UUID(random.nextLong(), random.nextLong()).toString();
+		recentIds[recentCount++ % RECENT_IDS] = id;
+		return id;
+	}
+
+	private String paymentType() {
+		int weight = random.nextInt(paymentWeightSum);
+		for (int i = 0; i < paymentTypes.length; i++) {
+			weight -= paymentWeights[i];
+			if (weight < 0) return paymentTypes[i];
+		}
+		return paymentTypes[paymentTypes.length - 1];
+	}
+
+	private int between(int min, int max) {
+		return min + random.nextInt(max - min + 1);
+	}
+
+	private static String money(long minorUnits) {
+		return minorUnits / 100 + "." + (minorUnits % 100 < 10 ? "0" : "") + minorUnits % 100;
+	}
+
+	private static int[] parseRange(String range) {
+		String[] bounds = range.split("-");
+		int min = Integer.parseInt(bounds[0].trim());
+		return new int[]{min, bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : min};
+	}
+}
@@ -0,0 +1,188 @@
+package com.example.mongoReactive.loadtest;
+
+import com.example.mongoReactive.MongoReactiveApplication;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.bson.Document;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Нагрузочный тест полного пути POST /api/check -> CheckRepository.save -> MongoDB и GET /api/checks/{id}.
+ * Запускает встроенный mongod (или использует локальный по параметру mongo-port), приложение на случайном порту и
+ * подаёт смешанную нагрузку чтения/записи с фиксированной интенсивностью поступления запросов (открытая модель:
+ * задержка отсчитывается от запланированного момента запроса, поэтому очередь на стороне клиента учитывается).
+ * Отчёт: количество запросов, ошибки, p50/p99/p999/max задержки по типам запросов и счётчики операций MongoDB.
+ * <p>
+ * Параметры передаются в виде key=value: rate (запросов/с), duration и warmup (с), write-ratio, items, payments,
+ * payment-mix, external-id-repeat, max-in-flight, mongo-port (0 - встроенный mongod), seed, result (файл JSON).
+ */
+public class CheckLoadTest {
+	private static final int RECENT_IDS = 65_536;
+	private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+	private final WebClient client;
+	private final CheckGenerator generator;
+	private final double writeRatio;
+	private final AtomicReferenceArray<String> ids = new AtomicReferenceArray<>(RECENT_IDS);
+	private final AtomicLong idCount = new AtomicLong();
+
+	private CheckLoadTest(WebClient client, CheckGenerator generator, double writeRatio) {
+		this.client = client;
+		this.generator = generator;
+		this.writeRatio = writeRatio;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> params = new HashMap<>();
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i > 0) params.put(arg.substring(0, i), arg.substring(i + 1));
+		}
+		int rate = Integer.parseInt(params.getOrDefault("rate", "200"));
+		int duration = Integer.parseInt(params.getOrDefault("duration", "30"));
+		int warmup = Integer.parseInt(params.getOrDefault("warmup", "5"));
+		int maxInFlight = Integer.parseInt(params.getOrDefault("max-in-flight", "1024"));
+		int mongoPort = Integer.parseInt(params.getOrDefault("mongo-port", "0"));
+		String result = params.getOrDefault("result", "target/loadtest-result.json");
+		CheckGenerator generator = new CheckGenerator(Long.parseLong(params.getOrDefault("seed", "1")),
+				params.getOrDefault("items", "1-20"), params.getOrDefault("payments", "1-2"),
+				params.getOrDefault("payment-mix", "1:80,2:20"),
+				Double.parseDouble(params.getOrDefault("external-id-repeat", "0.05")));
+
+		MongodExecutable mongod = null;
+		if (mongoPort == 0) {
+			mongoPort = Network.getFreeServerPort();
+			mongod = MongodStarter.getDefaultInstance().prepare(MongodConfig.builder()
+					.version(Version.Main.V5_0)
+					.net(new Net(mongoPort, Network.localhostIsIPv6()))
+					.build());
+			mongod.start();
+		}
+		ConfigurableApplicationContext context = null;
+		try (MongoClient mongoClient = MongoClients.create("mongodb://localhost:" + mongoPort)) {
+			context = new SpringApplicationBuilder(MongoReactiveApplication.class)
+					.web(WebApplicationType.REACTIVE)
+					.properties("server.port=0", "local.mongo.port=" + mongoPort, "local.mongo.dbname=loadtest",
+							"spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration")
+					.run();
+			String port = context.getEnvironment().getProperty("local.server.port");
+			WebClient client = WebClient.builder()
+					.baseUrl("http://localhost:" + port + "/api")
+					.codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+					.build();
+			CheckLoadTest test = new CheckLoadTest(client, generator, Double.parseDouble(params.getOrDefault("write-ratio", "0.5")));
+
+			test.run(rate, warmup, maxInFlight);
+			Document opcountersBefore = opcounters(mongoClient);
+			Document report = test.run(rate, duration, maxInFlight);
+			Document opcountersAfter = opcounters(mongoClient);
+			Document mongoOperations = new Document();
+			for (String key : opcountersAfter.keySet()) {
+				mongoOperations.append(key, ((Number) opcountersAfter.get(key)).longValue()
+						- ((Number) opcountersBefore.get(key)).longValue());
+			}
+			report.append("mongoOperations", mongoOperations)
+					.append("parameters", new Document(new HashMap<>(params)));
+			String json = report.toJson(JsonWriterSettings.builder().indent(true).build());
+			System.out.println(json);
+			Files.write(Paths.get(result), json.getBytes(StandardCharsets.UTF_8));
+		}
+		finally {
+			if (context != null) context.close();
+			if (mongod != null) mongod.stop();
+		}
+	}
+
+	private Document run(int rate, int seconds, int maxInFlight) {
+		Histogram writeLatency = new ConcurrentHistogram(MAX_LATENCY, 3);
+		Histogram readLatency = new ConcurrentHistogram(MAX_LATENCY, 3);
+		AtomicLong writeErrors = new AtomicLong();
+		AtomicLong readErrors = new AtomicLong();
+		long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		Flux.interval(Duration.ofNanos(periodNanos))
+				.take((long) rate * seconds)
+				.onBackpressureBuffer()
+				.flatMap(i -> {
+					long intended = start + (i + 1) * periodNanos;
+					boolean write = idCount.get() == 0 || ThreadLocalRandom.current().nextDouble() < writeRatio;
+					Mono<?> request = write ? write() : read();
+					Histogram latency = write ? writeLatency : readLatency;
+					AtomicLong errors = write ? writeErrors : readErrors;
+					return request
+							.doOnError(e -> errors.incrementAndGet())
+							.onErrorResume(e -> Mono.empty())
+							.doFinally(signal -> latency.recordValue(Math.min(System.nanoTime() - intended, MAX_LATENCY)));
+				}, maxInFlight)
+				.blockLast();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		return new Document("durationSeconds", elapsed)
+				.append("write", latencyReport(writeLatency, writeErrors.get(), elapsed))
+				.append("read", latencyReport(readLatency, readErrors.get(), elapsed));
+	}
+
+	private Mono<String> write() {
+		return client.post().uri("/check")
+				.contentType(MediaType.APPLICATION_XML)
+				.bodyValue(generator.next())
+				.retrieve()
+				.bodyToMono(String.class)
+				.doOnNext(body -> {
+					Document saved = Document.parse(body);
+					String id = saved.getString("Inserted");
+					if (id != null) ids.set((int) (idCount.getAndIncrement() % RECENT_IDS), id);
+				});
+	}
+
+	private Mono<String> read() {
+		long count = Math.min(idCount.get(), RECENT_IDS);
+		String id = ids.get((int) ThreadLocalRandom.current().nextLong(count));
+		return client.get().uri("/checks/{id}", id)
+				.retrieve()
+				.bodyToMono(String.class);
+	}
+
+	private static Document latencyReport(Histogram latency, long errors, double elapsed) {
+		long count = latency.getTotalCount();
+		return new Document("requests", count)
+				.append("errors", errors)
+				.append("errorRate", count == 0 ? 0.0 : (double) errors / count)
+				.append("throughput", count / elapsed)
+				.append("p50Ms", latency.getValueAtPercentile(50) / 1e6)
+				.append("p99Ms", latency.getValueAtPercentile(99) / 1e6)
+				.append("p999Ms", latency.getValueAtPercentile(99.9) / 1e6)
+				.append("maxMs", latency.getMaxValue() / 1e6);
+	}
+
+	private static Document opcounters(MongoClient mongoClient) {
+		Document status = Mono.from(mongoClient.getDatabase("admin").runCommand(new Document("serverStatus", 1)))
+				.block();
+		return status.get("opcounters", Document.class);
+	}
+}
@@ -3,6 +3,8 @@ package com.example.mongoReactive;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Profiles;
 
 @SpringBootApplication
 public class MongoReactiveApplication {
@@ -10,7 +12,10 @@ public class MongoReactiveApplication {
 	public static void main(String[] args) {
 		SpringApplication springApplication = new SpringApplication();
 		springApplication.setWebApplicationType(WebApplicationType.REACTIVE);
-		springApplication.run(MongoReactiveApplication.class, args);
+		ConfigurableApplicationContext context = springApplication.run(MongoReactiveApplication.class, args);
+		// Профиль import выполняет импорт файлов при запуске и завершает приложение
+		if (context.getEnvironment().acceptsProfiles(Profiles.of("import")))
+			System.exit(SpringApplication.exit(context));
 	}
 
 }
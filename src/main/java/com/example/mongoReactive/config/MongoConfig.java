@@ -1,5 +1,11 @@
 package com.example.mongoReactive.config;
 
+import com.example.mongoReactive.util.ConnectionPoolStatistics;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.reactivestreams.client.MongoDatabase;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -10,10 +16,20 @@ import org.springframework.data.mongodb.repository.config.EnableReactiveMongoRep
 import com.mongodb.reactivestreams.client.MongoClient;
 import com.mongodb.reactivestreams.client.MongoClients;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
 @Configuration
 @EnableReactiveMongoRepositories(basePackages = "com.example.mongoReactive.repository")
 public class MongoConfig extends AbstractReactiveMongoConfiguration
 {
+    @Value("${local.mongo.host:localhost}")
+    private String host;
+
     @Value("${local.mongo.port:27017}")
     private String port;
 
@@ -23,14 +39,76 @@ public class MongoConfig extends AbstractReactiveMongoConfiguration
     @Value("${local.mongo.collection-name}")
     private String collectionName;
 
+    @Value("${local.mongo.pool.min-size:0}")
+    private int poolMinSize;
+
+    @Value("${local.mongo.pool.max-size:100}")
+    private int poolMaxSize;
+
+    @Value("${local.mongo.pool.max-wait:2m}")
+    private Duration poolMaxWait;
+
+    @Value("${local.mongo.pool.max-idle:0}")
+    private Duration poolMaxIdle;
+
+    @Value("${local.mongo.compressors:}")
+    private List<String> compressors;
+
+    @Value("${local.mongo.connect-timeout:10s}")
+    private Duration connectTimeout;
+
+    @Value("${local.mongo.socket-timeout:0}")
+    private Duration socketTimeout;
+
+    @Value("${local.mongo.server-selection-timeout:30s}")
+    private Duration serverSelectionTimeout;
+
+    @Value("${local.mongo.read-preference:primary}")
+    private String readPreference;
+
+    @Value("${local.mongo.write-concern:acknowledged}")
+    private String writeConcern;
+
+    private final ConnectionPoolStatistics connectionPoolStatistics = new ConnectionPoolStatistics();
+
     public String getCollectionName() {
         return collectionName;
     }
 
+    @Bean
+    public ConnectionPoolStatistics connectionPoolStatistics() {
+        return connectionPoolStatistics;
+    }
+
     @Bean
     @Override
     public MongoClient reactiveMongoClient() {
-        return MongoClients.create();
+        return MongoClients.create(mongoClientSettings());
+    }
+    /**
+     * Возвращает настройки клиента MongoDB: размер пула соединений, сжатие сетевого трафика, таймауты, предпочтение
+     * чтения и подтверждение записи. Сжатие используется, если поддерживается сервером; первый из указанных
+     * алгоритмов, поддерживаемый сервером, выбирается при установке соединения.
+     */
+    @Override
+    protected MongoClientSettings mongoClientSettings() {
+        return MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString("mongodb://" + host + ":" + port))
+                .applyToConnectionPoolSettings(pool -> pool
+                        .minSize(poolMinSize)
+                        .maxSize(poolMaxSize)
+                        .maxWaitTime(poolMaxWait.toMillis(), TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(poolMaxIdle.toMillis(), TimeUnit.MILLISECONDS)
+                        .addConnectionPoolListener(connectionPoolStatistics))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout((int)connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                        .readTimeout((int)socketTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(cluster -> cluster
+                        .serverSelectionTimeout(serverSelectionTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .compressorList(compressors(compressors))
+                .readPreference(ReadPreference.valueOf(readPreference))
+                .writeConcern(writeConcern(writeConcern))
+                .build();
     }
 
     @Override
@@ -42,4 +120,40 @@ public class MongoConfig extends AbstractReactiveMongoConfiguration
     MongoDatabase mongoDatabase() {
         return reactiveMongoClient().getDatabase(getDatabaseName());
     }
-}
\ No newline at end of file
+    /**
+     * Возвращает алгоритмы сжатия по именам zstd, snappy, zlib. Для zstd и snappy в classpath должны быть
+     * библиотеки com.github.luben:zstd-jni и org.xerial.snappy:snappy-java соответственно.
+     */
+    static List<MongoCompressor> compressors(List<String> names) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        for(String name : names) {
+            switch(name.trim().toLowerCase()) {
+                case "":
+                    break;
+                case "zstd":
+                    compressors.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "snappy":
+                    compressors.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown compressor " + name);
+            }
+        }
+        return compressors;
+    }
+    /**
+     * Возвращает подтверждение записи по имени (acknowledged, majority, w1, journaled, ...) или количеству узлов.
+     */
+    static WriteConcern writeConcern(String name) {
+        WriteConcern writeConcern = name.trim().matches("\\d+")
+                ? new WriteConcern(Integer.parseInt(name.trim()))
+                : WriteConcern.valueOf(name.trim());
+        if(isNull(writeConcern))
+            throw new IllegalArgumentException("Unknown write concern " + name);
+        return writeConcern;
+    }
+}
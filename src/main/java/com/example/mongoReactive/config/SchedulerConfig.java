@@ -0,0 +1,25 @@
+package com.example.mongoReactive.config;
+
+import com.example.mongoReactive.util.BoundedScheduler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulerConfig
+{
+    @Value("${local.check.convert-threads:0}")
+    private int convertThreads;
+
+    @Value("${local.check.convert-queue-size:1024}")
+    private int convertQueueSize;
+
+    @Bean(destroyMethod = "dispose")
+    public BoundedScheduler convertScheduler() {
+        return new BoundedScheduler("check-convert",
+                convertThreads > 0 ? convertThreads : Runtime.getRuntime().availableProcessors(),
+                convertQueueSize);
+    }
+}
@@ -1,6 +1,13 @@
 package com.example.mongoReactive.config;
 
+import com.example.mongoReactive.util.RawBsonJsonEncoder;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.web.reactive.config.EnableWebFlux;
 import org.springframework.web.reactive.config.WebFluxConfigurer;
 
@@ -8,4 +15,19 @@ import org.springframework.web.reactive.config.WebFluxConfigurer;
 @EnableWebFlux
 public class WebFluxConfig implements WebFluxConfigurer
 {
-}
\ No newline at end of file
+    @Value("${local.check.json-format:COMPATIBLE}")
+    private RawBsonJsonEncoder.Format jsonFormat = RawBsonJsonEncoder.Format.COMPATIBLE;
+
+    /**
+     * Идентификаторы ObjectId выводятся шестнадцатеричной строкой, которая передаётся в параметрах запросов
+     * (например, after при постраничном выводе). Документы RawBsonDocument записываются в JSON непосредственно
+     * из BSON в формате local.check.json-format.
+     */
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(Jackson2ObjectMapperBuilder.json()
+                .serializerByType(ObjectId.class, ToStringSerializer.instance)
+                .build()));
+        configurer.customCodecs().register(new RawBsonJsonEncoder(jsonFormat));
+    }
+}
@@ -2,52 +2,261 @@ package com.example.mongoReactive.controller;
 
 import com.example.mongoReactive.repository.CheckRepository;
 import com.example.mongoReactive.service.ChecksService;
+import com.example.mongoReactive.util.BoundedScheduler;
+import com.example.mongoReactive.util.ConnectionPoolStatistics;
 import com.example.mongoReactive.util.ConvertDataException;
+import com.example.mongoReactive.util.DocumentBuilder.NodeResult;
+import com.example.mongoReactive.util.DocumentExport;
 import com.example.mongoReactive.util.IllegalObjectIdException;
+import com.example.mongoReactive.util.RawBsonJsonEncoder;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import static com.example.mongoReactive.util.ReactorRepositoryMongoDB.getVersion;
+import static java.util.Objects.isNull;
 
 @RestController
 @RequestMapping("/api")
 public class ApiController {
     private CheckRepository checkRepository;
     private ChecksService checksService;
-    public ApiController(CheckRepository checkRepository, ChecksService checksService){
+    private BoundedScheduler convertScheduler;
+    private ConnectionPoolStatistics connectionPoolStatistics;
+    @Value("${local.check.raw-bson:true}")
+    private boolean rawBson;
+    @Value("${local.check.batch-size:500}")
+    private int batchSize;
+    @Value("${local.check.retry-after:1}")
+    private String retryAfter;
+    @Value("${local.check.page-size:100}")
+    private int pageSize;
+    @Value("${local.check.max-page-size:1000}")
+    private int maxPageSize;
+    @Value("${local.check.json-format:COMPATIBLE}")
+    private RawBsonJsonEncoder.Format jsonFormat = RawBsonJsonEncoder.Format.COMPATIBLE;
+    @Value("${local.check.export.batch-size:10000}")
+    private int exportBatchSize = 10000;
+    public ApiController(CheckRepository checkRepository, ChecksService checksService, BoundedScheduler convertScheduler,
+                         ConnectionPoolStatistics connectionPoolStatistics){
         this.checkRepository = checkRepository;
         this.checksService = checksService;
+        this.convertScheduler = convertScheduler;
+        this.connectionPoolStatistics = connectionPoolStatistics;
     }
 
+    /**
+     * Возвращает чек с заголовком ETag, равным версии чека. Версия входит и в тело ответа атрибутом _version,
+     * клиент может передать её в заголовке If-None-Match. Если версия совпадает с указанной в заголовке,
+     * возвращается ответ 304 без тела. Чек получается из базы одним запросом.
+     */
     @GetMapping("/checks/{id}")
-    public Flux<Document> getCheck(@PathVariable String id)  throws IllegalObjectIdException {
-        return this.checkRepository.findById(id);
+    public Mono<ResponseEntity<Flux<RawBsonDocument>>> getCheck(@PathVariable String id, ServerWebExchange exchange)
+            throws IllegalObjectIdException {
+        return checkRepository.findRawById(id)
+                .map(document -> {
+                    String eTag = eTag(getVersion(document));
+                    return exchange.checkNotModified(eTag)
+                            ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).<Flux<RawBsonDocument>>build()
+                            : ResponseEntity.ok().eTag(eTag).body(Flux.just(document));
+                })
+                .defaultIfEmpty(ResponseEntity.ok(Flux.empty()));
+    }
+
+    private static String eTag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Возвращает страницу чеков в порядке возрастания идентификатора. Следующая страница запрашивается с параметром
+     * after, равным _id последнего чека страницы. При запросе application/x-ndjson чеки передаются по одному в строке
+     * по мере чтения из базы.
+     * @param after идентификатор, после которого начинается страница
+     * @param limit размер страницы, не больше local.check.max-page-size
+     * @param fields включаемые атрибуты через запятую, например check.external_id,check.receipt.total
+     */
+    @GetMapping(path = "/checks",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<RawBsonDocument> getChecks(@RequestParam(defaultValue = "") String after,
+                                    @RequestParam(required = false) Integer limit,
+                                    @RequestParam(defaultValue = "") List<String> fields) throws IllegalObjectIdException {
+        if(isNull(limit))
+            limit = pageSize;
+        if(limit < 1 || limit > maxPageSize)
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxPageSize));
+        return checkRepository.findPage(after, limit, fields);
+    }
+
+    /**
+     * Возвращает чеки по ИНН компании, операции, внешнему идентификатору и интервалу времени чека в порядке
+     * возрастания времени. Не заданные параметры не учитываются.
+     * @param from начало интервала, включительно, например 2021-10-11T00:00:00+03:00
+     * @param to конец интервала, не включительно
+     * @param limit максимальное количество чеков, не больше local.check.max-page-size
+     * @param fields включаемые атрибуты через запятую
+     */
+    @GetMapping(path = "/checks/search",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<RawBsonDocument> searchChecks(@RequestParam(required = false) String inn,
+                                       @RequestParam(required = false) String operation,
+                                       @RequestParam(name = "external_id", required = false) String externalId,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+                                       @RequestParam(required = false) Integer limit,
+                                       @RequestParam(defaultValue = "") List<String> fields) {
+        if(isNull(limit))
+            limit = pageSize;
+        if(limit < 1 || limit > maxPageSize)
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxPageSize));
+        return checkRepository.findChecks(inn, operation, externalId,
+                isNull(from) ? null : Date.from(from.toInstant()), isNull(to) ? null : Date.from(to.toInstant()),
+                limit, fields);
     }
 
-    @GetMapping("/checks")
-    public Flux<Document> getChecks(){
-      return checkRepository.findAll();
+    /**
+     * Выгружает чеки в порядке идентификаторов файлом NDJSON или BSON (как mongodump), сжатым gzip или zstd.
+     * Чеки читаются из базы пакетами local.check.export.batch-size по мере передачи клиенту. Прерванная
+     * выгрузка продолжается с параметром after, равным идентификатору последнего полученного чека.
+     * @param format ndjson или bson
+     * @param compression gzip, zstd или none
+     * @param from начало интервала времени чека, включительно, например 2021-10-11T00:00:00+03:00
+     * @param to конец интервала, не включительно
+     */
+    @GetMapping("/checks/export")
+    public ResponseEntity<Flux<DataBuffer>> exportChecks(@RequestParam(defaultValue = "ndjson") String format,
+                                       @RequestParam(defaultValue = "gzip") String compression,
+                                       @RequestParam(defaultValue = "") String after,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+                                       ServerWebExchange exchange) throws IllegalObjectIdException {
+        DocumentExport export;
+        try {
+            export = new DocumentExport(DocumentExport.Format.valueOf(format.toUpperCase()),
+                    DocumentExport.Compression.valueOf(compression.toUpperCase()), new RawBsonJsonEncoder(jsonFormat));
+        }
+        catch(IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format must be ndjson or bson, "
+                    + "compression must be gzip, zstd or none");
+        }
+        Flux<RawBsonDocument> checks = checkRepository.exportChecks(after,
+                isNull(from) ? null : Date.from(from.toInstant()), isNull(to) ? null : Date.from(to.toInstant()),
+                exportBatchSize);
+        return ResponseEntity.ok()
+                .contentType(export.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(export.getFileName("checks")).build().toString())
+                .body(export.write(checks, exchange.getResponse().bufferFactory()));
     }
 
     @PostMapping(path = "/check",
             consumes = {MediaType.APPLICATION_XML_VALUE})
-    public Mono<Document> saveCheck(@RequestHeader("Content-Type") String contentType, @RequestBody String body)
-            throws IllegalObjectIdException, ConvertDataException, IOException  {
-        Document doc = checksService.xml2Document(body, "****", null);
-        return checkRepository.save("", doc);
+    public Mono<Document> saveCheck(@RequestHeader("Content-Type") String contentType, @RequestBody Flux<DataBuffer> body)
+            throws IllegalObjectIdException {
+        return saveCheck(contentType, "", body);
     }
     @PostMapping(path = "/check/{id}",
             consumes = {MediaType.APPLICATION_XML_VALUE})
     public Mono<Document> saveCheck(@RequestHeader("Content-Type") String contentType,
                                     @PathVariable String id,
-                                    @RequestBody String body)
-            throws  IllegalObjectIdException, ConvertDataException, IOException {
-        Document doc = checksService.xml2Document(body, "****", null);
-        return checkRepository.save(id, doc);
+                                    @RequestBody Flux<DataBuffer> body)
+            throws  IllegalObjectIdException {
+        if(id.isEmpty()) {
+            if(rawBson)
+                return checksService.xml2RawDocument(body, "****", null)
+                        .flatMap(doc -> checkRepository.insert(doc));
+            return checksService.xml2Document(body, "****", null)
+                    .flatMap(doc -> checkRepository.insert(doc));
+        }
+        Document key = checkRepository.idDocument(id);
+        if(rawBson)
+            return checksService.xml2RawDocument(body, "****", null)
+                    .flatMap(doc -> checkRepository.save(key, doc));
+        return checksService.xml2Document(body, "****", null)
+                .flatMap(doc -> checkRepository.save(key, doc));
+    }
+
+    @GetMapping("/stats/convert")
+    public Mono<Document> getConvertStatistics() {
+        return Mono.fromSupplier(convertScheduler::getStatistics);
+    }
+
+    @GetMapping("/stats/writes")
+    public Mono<Document> getWriteStatistics() {
+        return Mono.justOrEmpty(checkRepository.getWriteStatistics());
+    }
+
+    @GetMapping("/stats/cache")
+    public Mono<Document> getCacheStatistics() {
+        return Mono.justOrEmpty(checkRepository.getCacheStatistics());
+    }
+
+    @GetMapping("/stats/collapsing")
+    public Mono<Document> getCollapseStatistics() {
+        return Mono.justOrEmpty(checkRepository.getCollapseStatistics());
+    }
+
+    @GetMapping("/stats/pool")
+    public Mono<Document> getPoolStatistics() {
+        return Mono.fromSupplier(connectionPoolStatistics::getStatistics);
+    }
+
+    @GetMapping("/stats/attributes")
+    public Mono<Document> getAttributeStatistics() {
+        return Mono.fromSupplier(checksService.getAttributeStatistics()::getStatistics);
+    }
+
+    /**
+     * Сохраняет пакет чеков. Чеки преобразуются по мере получения и записываются частями по local.check.batch-size
+     * чеков.
+     * @return результаты сохранения чеков в порядке следования
+     */
+    @PostMapping(path = "/checks/batch",
+            consumes = {MediaType.APPLICATION_XML_VALUE})
+    public Flux<Document> saveChecks(@RequestHeader("Content-Type") String contentType,
+                                     @RequestBody Flux<DataBuffer> body) {
+        return checksService.xml2RawDocuments(body, "****")
+                .buffer(batchSize)
+                .concatMap(this::saveChecks, 1)
+                .flatMapIterable(results -> results);
+    }
+
+    private Mono<List<Document>> saveChecks(List<NodeResult> checks) {
+        List<RawBsonDocument> documents = checks.stream()
+                .filter(check -> isNull(check.getError()))
+                .map(check -> (RawBsonDocument) check.getReceiverObject())
+                .collect(Collectors.toList());
+        return checkRepository.saveAll(documents)
+                .map(saved -> {
+                    Iterator<Document> savedIterator = saved.iterator();
+                    return checks.stream()
+                            .map(check -> isNull(check.getError())
+                                    ? savedIterator.next()
+                                    : new Document("Error", check.getError().getMessage()))
+                            .collect(Collectors.toList());
+                });
     }
 
     @ExceptionHandler(IllegalObjectIdException.class)
@@ -67,4 +276,17 @@ public class ApiController {
     public Mono<Document> handleException3(IOException e) {
         return Mono.just(new Document("Error", e.getMessage()));
     }
-}
\ No newline at end of file
+
+    @ExceptionHandler(DataBufferLimitException.class)
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    public Mono<Document> handleException4(DataBufferLimitException e) {
+        return Mono.just(new Document("Error", e.getMessage()));
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public Mono<ResponseEntity<Document>> handleException5(RejectedExecutionException e) {
+        return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                .body(new Document("Error", e.getMessage())));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.mongoReactive.controller;
+
+import com.example.mongoReactive.service.CheckStreamService;
+import com.example.mongoReactive.util.IllegalObjectIdException;
+import com.example.mongoReactive.util.RawBsonJsonEncoder;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import static java.util.Objects.isNull;
+
+@RestController
+@RequestMapping("/api")
+public class CheckStreamController {
+    private CheckStreamService checkStreamService;
+    private RawBsonJsonEncoder jsonEncoder;
+    public CheckStreamController(CheckStreamService checkStreamService,
+                                 @Value("${local.check.json-format:COMPATIBLE}") RawBsonJsonEncoder.Format jsonFormat) {
+        this.checkStreamService = checkStreamService;
+        this.jsonEncoder = new RawBsonJsonEncoder(jsonFormat);
+    }
+
+    /**
+     * Передаёт сохраняемые чеки по мере сохранения, по строке JSON на чек.
+     * @param after идентификатор последнего полученного чека, с которого продолжается поток
+     */
+    @GetMapping(path = "/checks/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<RawBsonDocument> streamChecks(@RequestParam(defaultValue = "") String after)
+            throws IllegalObjectIdException {
+        return checkStreamService.stream(after);
+    }
+
+    /**
+     * Передаёт сохраняемые чеки событиями Server-Sent Events с идентификатором события, равным идентификатору чека.
+     * При переподключении поток продолжается с чека из заголовка Last-Event-ID, если не задан параметр after.
+     * Данные события - JSON чека в формате local.check.json-format.
+     */
+    @GetMapping(path = "/checks/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamCheckEvents(@RequestParam(defaultValue = "") String after,
+            @RequestHeader(value = "Last-Event-ID", defaultValue = "") String lastEventId)
+            throws IllegalObjectIdException {
+        return checkStreamService.stream(after.isEmpty() ? lastEventId : after)
+                .map(check -> ServerSentEvent.builder(json(check)).id(eventId(check.get("_id"))).build());
+    }
+
+    @GetMapping("/stats/stream")
+    public Mono<Document> getStreamStatistics() {
+        return Mono.just(checkStreamService.getStatistics());
+    }
+
+    @ExceptionHandler(IllegalObjectIdException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public Mono<Document> handleException(IllegalObjectIdException e) {
+        return Mono.just(new Document("Error", e.getCause().getMessage()));
+    }
+
+    private String json(RawBsonDocument check) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            jsonEncoder.write(check, output);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String eventId(BsonValue id) {
+        if(isNull(id))
+            return null;
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.mongoReactive.controller;
+
+import com.example.mongoReactive.repository.CheckRollupRepository;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static java.util.Objects.isNull;
+
+@RestController
+@RequestMapping("/api")
+public class RollupController {
+    private CheckRollupRepository checkRollupRepository;
+    @Value("${local.check.page-size:100}")
+    private int pageSize;
+    @Value("${local.check.max-page-size:1000}")
+    private int maxPageSize;
+    public RollupController(CheckRollupRepository checkRollupRepository) {
+        this.checkRollupRepository = checkRollupRepository;
+    }
+
+    /**
+     * Возвращает итоги чеков по ИНН компании, дню и операции.
+     * @param from первый день, yyyy-MM-dd
+     * @param to последний день, yyyy-MM-dd
+     * @param limit максимальное количество итогов, не больше local.check.max-page-size
+     */
+    @GetMapping(path = "/rollups",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<RawBsonDocument> getRollups(@RequestParam(required = false) String inn,
+                                            @RequestParam(required = false) String operation,
+                                            @RequestParam(required = false) String from,
+                                            @RequestParam(required = false) String to,
+                                            @RequestParam(required = false) Integer limit) {
+        if(isNull(limit))
+            limit = pageSize;
+        if(limit < 1 || limit > maxPageSize)
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxPageSize));
+        return checkRollupRepository.findRollups(inn, operation, from, to, limit);
+    }
+
+    /**
+     * Пересчитывает итоги по коллекции чеков.
+     * @return количество документов итогов
+     */
+    @PostMapping("/rollups/rebuild")
+    public Mono<Document> rebuildRollups() {
+        return checkRollupRepository.rebuild().map(count -> new Document("Rebuilt", count));
+    }
+}
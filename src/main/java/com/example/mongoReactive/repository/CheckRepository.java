@@ -1,13 +1,86 @@
 package com.example.mongoReactive.repository;
 
 import com.example.mongoReactive.config.MongoConfig;
+import com.example.mongoReactive.util.IllegalObjectIdException;
 import com.example.mongoReactive.util.ReactorCollectionMongoDB;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
 
 @Service
 public class CheckRepository extends ReactorCollectionMongoDB {
+    private static final String INN = "check.receipt.company.inn";
+    private static final String OPERATION = "check.receipt.operation";
+    private static final String EXTERNAL_ID = "check.external_id";
+    private static final String TIMESTAMP = "check.timestamp";
 
     CheckRepository(MongoConfig mongoConfig) {
-        super(mongoConfig.getCollectionName());
+        super(mongoConfig.getCollectionName(), EXTERNAL_ID,
+                new IndexModel(Indexes.ascending(INN, OPERATION, TIMESTAMP)),
+                new IndexModel(Indexes.ascending(INN, TIMESTAMP)),
+                new IndexModel(Indexes.ascending(OPERATION, TIMESTAMP)),
+                new IndexModel(Indexes.ascending(TIMESTAMP)));
+    }
+    /**
+     * Возвращает чеки, удовлетворяющие заданным условиям, в порядке возрастания check.timestamp. Условия, равные null,
+     * не применяются. Условия from и to выбирают только чеки, атрибут check.timestamp которых сохранён как дата
+     * (local.check.timestamp-format). Отбор и сортировку без чтения лишних чеков обеспечивают индексы коллекции:
+     * inn и operation - {inn, operation, timestamp}, только inn - {inn, timestamp}, только operation -
+     * {operation, timestamp}, только интервал from-to или без условий - {timestamp}, в каждом случае с интервалом
+     * from-to или без него. Условие externalId выбирает не более одного чека по уникальному индексу.
+     * @param inn ИНН компании
+     * @param operation операция, например sell
+     * @param externalId внешний идентификатор чека
+     * @param from начало интервала check.timestamp, включительно
+     * @param to конец интервала check.timestamp, не включительно
+     * @param limit максимальное количество чеков
+     * @param fields включаемые атрибуты или пустой список для всех атрибутов
+     */
+    public Flux<RawBsonDocument> findChecks(String inn, String operation, String externalId, Date from, Date to,
+                                     int limit, List<String> fields) {
+        List<Bson> filters = new ArrayList<>();
+        if(nonNull(inn))
+            filters.add(Filters.eq(INN, inn));
+        if(nonNull(operation))
+            filters.add(Filters.eq(OPERATION, operation));
+        if(nonNull(externalId))
+            filters.add(Filters.eq(EXTERNAL_ID, externalId));
+        if(nonNull(from))
+            filters.add(Filters.gte(TIMESTAMP, from));
+        if(nonNull(to))
+            filters.add(Filters.lt(TIMESTAMP, to));
+        return findRaw(filters.isEmpty() ? new Document() : Filters.and(filters), Sorts.ascending(TIMESTAMP),
+                limit, fields);
+    }
+    /**
+     * Возвращает чеки для выгрузки в порядке идентификаторов. Условия, равные null или пустые, не применяются.
+     * Условия from и to выбирают только чеки, атрибут check.timestamp которых сохранён как дата.
+     * @param after идентификатор последнего выгруженного чека, с которого продолжается выгрузка
+     * @param from начало интервала check.timestamp, включительно
+     * @param to конец интервала check.timestamp, не включительно
+     * @param batchSize размер пакета курсора
+     */
+    public Flux<RawBsonDocument> exportChecks(String after, Date from, Date to, int batchSize)
+            throws IllegalObjectIdException {
+        List<Bson> filters = new ArrayList<>();
+        if(!after.isEmpty())
+            filters.add(Filters.gt("_id", idDocument(after).get("_id")));
+        if(nonNull(from))
+            filters.add(Filters.gte(TIMESTAMP, from));
+        if(nonNull(to))
+            filters.add(Filters.lt(TIMESTAMP, to));
+        return findAllRaw(filters.isEmpty() ? new Document() : Filters.and(filters), batchSize);
     }
 }
@@ -0,0 +1,240 @@
+package com.example.mongoReactive.repository;
+
+import com.example.mongoReactive.util.ReactorCollectionMongoDB;
+import com.example.mongoReactive.util.ReactorRepositoryMongoDB.ChangeListener;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.types.Decimal128;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Агрегированные итоги чеков по ИНН компании, дню и операции: количество чеков, сумма total и суммы НДС по типам.
+ * Документ итогов: {_id: {inn, day, operation}, count, total, vat: {&lt;тип&gt;: сумма}}, день - строка yyyy-MM-dd
+ * в часовом поясе local.check.timestamp-zone. Итоги обновляются операциями $inc при каждом сохранении чека
+ * (при изменении чека вычитается его прежний вклад) и могут быть пересчитаны по коллекции чеков методом rebuild.
+ * В итогах учитываются только чеки, атрибут check.timestamp которых сохранён как дата.
+ */
+@Service
+public class CheckRollupRepository extends ReactorCollectionMongoDB implements ChangeListener {
+    private static final String TIMESTAMP = "check.timestamp";
+    private static final String INN = "check.receipt.company.inn";
+    private static final String OPERATION = "check.receipt.operation";
+    private static final String TOTAL = "check.receipt.total";
+    private static final String VATS = "check.receipt.vats";
+    private static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(TIMESTAMP, INN, OPERATION, TOTAL, VATS));
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    private final CheckRepository checkRepository;
+    private final String collectionName;
+    private final ZoneId zone;
+
+    CheckRollupRepository(CheckRepository checkRepository,
+                          @Value("${local.check.rollup.enabled:false}") boolean enabled,
+                          @Value("${local.check.rollup.collection-name:check_daily}") String collectionName,
+                          @Value("${local.check.timestamp-zone:}") String zone) {
+        super(collectionName, null,
+                new IndexModel(Indexes.ascending("_id.inn", "_id.day")),
+                new IndexModel(Indexes.ascending("_id.day")));
+        this.checkRepository = checkRepository;
+        this.collectionName = collectionName;
+        this.zone = zone.isEmpty() ? ZoneId.systemDefault() : ZoneId.of(zone);
+        if(enabled)
+            checkRepository.addChangeListener(this);
+    }
+
+    @Override
+    public List<String> getFields() {
+        return FIELDS;
+    }
+
+    @Override
+    public Mono<Void> changed(BsonValue id, BsonDocument before, BsonDocument after) {
+        return Flux.fromIterable(increments(before, after, zone).entrySet())
+                .flatMap(increment -> Mono.from(getCollection().updateOne(new BsonDocument("_id", increment.getKey()),
+                        new BsonDocument("$inc", increment.getValue()), UPSERT)))
+                .then();
+    }
+    /**
+     * Возвращает итоги в порядке ИНН и дня. Условия, равные null, не применяются.
+     * @param from первый день, yyyy-MM-dd
+     * @param to последний день, yyyy-MM-dd
+     */
+    public Flux<RawBsonDocument> findRollups(String inn, String operation, String from, String to, int limit) {
+        List<Bson> filters = new ArrayList<>();
+        if(nonNull(inn))
+            filters.add(Filters.eq("_id.inn", inn));
+        if(nonNull(operation))
+            filters.add(Filters.eq("_id.operation", operation));
+        if(nonNull(from))
+            filters.add(Filters.gte("_id.day", from));
+        if(nonNull(to))
+            filters.add(Filters.lte("_id.day", to));
+        return findRaw(filters.isEmpty() ? new Document() : Filters.and(filters),
+                Sorts.ascending("_id.inn", "_id.day", "_id.operation"), limit, Collections.emptyList());
+    }
+    /**
+     * Пересчитывает итоги по коллекции чеков конвейером агрегации. Результат заменяет коллекцию итогов целиком
+     * (стадия $out), поэтому изменения чеков, сохранённых во время пересчёта, могут быть не учтены.
+     * @return количество документов итогов
+     */
+    public Mono<Long> rebuild() {
+        return Mono.from(checkRepository.getCollection().aggregate(rebuildPipeline(collectionName, zone))
+                        .allowDiskUse(true)
+                        .toCollection())
+                .then(Mono.from(getCollection().countDocuments()));
+    }
+    /**
+     * Конвейер пересчёта итогов: чек разворачивается по ставкам НДС, количество чеков и total учитываются только
+     * для первой ставки чека.
+     */
+    static List<Document> rebuildPipeline(String collectionName, ZoneId zone) {
+        Document first = new Document("$lte", Arrays.asList(new Document("$ifNull", Arrays.asList("$vatIndex", 0)), 0));
+        return Arrays.asList(
+                new Document("$match", new Document(TIMESTAMP, new Document("$type", "date"))),
+                new Document("$unwind", new Document("path", "$" + VATS)
+                        .append("includeArrayIndex", "vatIndex")
+                        .append("preserveNullAndEmptyArrays", true)),
+                new Document("$group", new Document("_id", new Document("inn", ifNull("$" + INN))
+                                .append("day", new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                                        .append("date", "$" + TIMESTAMP)
+                                        .append("timezone", zone.getId())))
+                                .append("operation", ifNull("$" + OPERATION))
+                                .append("vat", "$" + VATS + ".type"))
+                        .append("count", new Document("$sum", new Document("$cond", Arrays.asList(first, 1, 0))))
+                        .append("total", new Document("$sum", new Document("$cond", Arrays.asList(first, "$" + TOTAL, 0))))
+                        .append("vat", new Document("$sum", "$" + VATS + ".sum"))),
+                new Document("$group", new Document("_id", new Document("inn", "$_id.inn")
+                                .append("day", "$_id.day")
+                                .append("operation", "$_id.operation"))
+                        .append("count", new Document("$sum", "$count"))
+                        .append("total", new Document("$sum", "$total"))
+                        .append("vat", new Document("$push", new Document("k", "$_id.vat").append("v", "$vat")))),
+                new Document("$set", new Document("vat", new Document("$arrayToObject", new Document("$filter",
+                        new Document("input", "$vat")
+                                .append("cond", new Document("$eq", Arrays.asList(new Document("$type", "$$this.k"), "string"))))))),
+                new Document("$out", collectionName));
+    }
+
+    private static Document ifNull(String field) {
+        return new Document("$ifNull", Arrays.asList(field, null));
+    }
+    /**
+     * Возвращает изменения итогов при изменении чека: для каждой группы итогов - значения $inc. Прежний вклад чека
+     * вычитается, новый прибавляется; группы без изменений не возвращаются.
+     */
+    static Map<BsonDocument, BsonDocument> increments(BsonDocument before, BsonDocument after, ZoneId zone) {
+        Map<BsonDocument, BsonDocument> increments = new LinkedHashMap<>();
+        addContribution(increments, before, zone, true);
+        addContribution(increments, after, zone, false);
+        increments.values().removeIf(CheckRollupRepository::isZero);
+        return increments;
+    }
+
+    private static void addContribution(Map<BsonDocument, BsonDocument> increments, BsonDocument check, ZoneId zone,
+                                        boolean negate) {
+        BsonValue timestamp = get(check, TIMESTAMP);
+        if(isNull(timestamp) || !timestamp.isDateTime())
+            return;
+        BsonDocument key = new BsonDocument("inn", valueOrNull(get(check, INN)))
+                .append("day", new BsonString(Instant.ofEpochMilli(timestamp.asDateTime().getValue())
+                        .atZone(zone).toLocalDate().toString()))
+                .append("operation", valueOrNull(get(check, OPERATION)));
+        BsonDocument increment = increments.computeIfAbsent(key, k -> new BsonDocument());
+        add(increment, "count", new BsonInt32(1), negate);
+        add(increment, "total", get(check, TOTAL), negate);
+        BsonValue vats = get(check, VATS);
+        if(nonNull(vats) && vats.isArray()) {
+            for(BsonValue vat : vats.asArray()) {
+                BsonValue type = vat.isDocument() ? vat.asDocument().get("type") : null;
+                if(nonNull(type) && type.isString())
+                    add(increment, "vat." + type.asString().getValue(), vat.asDocument().get("sum"), negate);
+            }
+        }
+    }
+
+    private static BsonValue get(BsonDocument document, String path) {
+        BsonValue value = document;
+        for(String key : path.split("\\.")) {
+            if(isNull(value) || !value.isDocument())
+                return null;
+            value = value.asDocument().get(key);
+        }
+        return value;
+    }
+
+    private static BsonValue valueOrNull(BsonValue value) {
+        return isNull(value) ? BsonNull.VALUE : value;
+    }
+
+    private static void add(BsonDocument increment, String key, BsonValue value, boolean negate) {
+        if(isNull(value) || !value.isNumber() && !value.isDecimal128())
+            return;
+        if(negate)
+            value = negate(value);
+        BsonValue current = increment.get(key);
+        increment.put(key, isNull(current) ? value : sum(current, value));
+    }
+
+    private static BsonValue negate(BsonValue value) {
+        switch(value.getBsonType()) {
+            case DOUBLE: return new BsonDouble(-value.asDouble().getValue());
+            case INT32: return new BsonInt32(-value.asInt32().getValue());
+            case INT64: return new BsonInt64(-value.asInt64().getValue());
+            default: return new BsonDecimal128(new Decimal128(value.asDecimal128().getValue().bigDecimalValue().negate()));
+        }
+    }
+
+    private static BsonValue sum(BsonValue a, BsonValue b) {
+        if(a.isDecimal128() || b.isDecimal128())
+            return new BsonDecimal128(new Decimal128(decimal(a).add(decimal(b))));
+        if(a.isDouble() || b.isDouble())
+            return new BsonDouble(a.asNumber().doubleValue() + b.asNumber().doubleValue());
+        return new BsonInt64(a.asNumber().longValue() + b.asNumber().longValue());
+    }
+
+    private static BigDecimal decimal(BsonValue value) {
+        return value.isDecimal128()
+                ? value.asDecimal128().getValue().bigDecimalValue()
+                : new BigDecimal(value.isDouble() ? Double.toString(value.asDouble().getValue())
+                        : Long.toString(value.asNumber().longValue()));
+    }
+
+    private static boolean isZero(BsonDocument increment) {
+        for(BsonValue value : increment.values()) {
+            if(value.isDecimal128() ? value.asDecimal128().getValue().bigDecimalValue().signum() != 0
+                    : value.asNumber().doubleValue() != 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.mongoReactive.service;
+
+import com.example.mongoReactive.repository.CheckRepository;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Импорт каталога файлов чеков XML для первоначальной загрузки и восстановления данных. Запускается профилем import:
+ * java -jar webflux-mongodb.jar --spring.profiles.active=import --local.import.directory=/data/checks
+ * <p>
+ * Файлы каталога и подкаталогов, имена которых соответствуют шаблону local.import.pattern, читаются каналами NIO
+ * и преобразуются параллельно в потоках планировщика преобразования, по одному файлу на поток. Имя файла передаётся
+ * в сообщения об ошибках преобразования. Чеки записываются пакетами по local.check.batch-size методом saveAll,
+ * одновременно выполняется не больше local.import.write-concurrency пакетов.
+ * <p>
+ * Имена записанных файлов дописываются в журнал local.import.journal, при повторном запуске эти файлы пропускаются.
+ * Чеки, записанные до прерывания импорта, но не попавшие в журнал, распознаются уникальным индексом external_id
+ * (или поиском перед записью пакета, если индекс не создан) и возвращаются как Duplicate. Ошибки с именами файлов дописываются в файл local.import.failed. Ход импорта
+ * выводится в журнал приложения каждые local.import.progress-interval. При ошибках код завершения приложения - 1.
+ */
+@Service
+@Profile("import")
+public class CheckImportService implements ApplicationRunner, ExitCodeGenerator {
+    private static final Logger LOG = LoggerFactory.getLogger(CheckImportService.class);
+
+    private final CheckRepository checkRepository;
+    private final ChecksService checksService;
+    @Value("${local.import.directory:.}")
+    private String directory = ".";
+    @Value("${local.import.pattern:*.xml}")
+    private String pattern = "*.xml";
+    @Value("${local.import.journal:}")
+    private String journal = "";
+    @Value("${local.import.failed:}")
+    private String failed = "";
+    @Value("${local.check.convert-threads:0}")
+    private int convertConcurrency;
+    @Value("${local.import.write-concurrency:4}")
+    private int writeConcurrency = 4;
+    @Value("${local.check.batch-size:500}")
+    private int batchSize = 500;
+    @Value("${local.check.max-document-size:1MB}")
+    private DataSize maxDocumentSize = DataSize.ofMegabytes(1);
+    @Value("${local.import.progress-interval:10s}")
+    private Duration progressInterval = Duration.ofSeconds(10);
+
+    private final AtomicLong fileCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong insertedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    CheckImportService(CheckRepository checkRepository, ChecksService checksService) {
+        this.checkRepository = checkRepository;
+        this.checksService = checksService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Document statistics = importDirectory().block();
+        LOG.info("Import finished: {}", statistics.toJson());
+    }
+
+    @Override
+    public int getExitCode() {
+        return failedCount.get() > 0 ? 1 : 0;
+    }
+    /**
+     * Импортирует файлы каталога local.import.directory, не записанные в журнал.
+     * @return статистика импорта
+     */
+    public Mono<Document> importDirectory() {
+        Path directory = Paths.get(this.directory);
+        Path journalPath = journal.isEmpty() ? directory.resolve(".import-done") : Paths.get(journal);
+        Path failedPath = failed.isEmpty() ? directory.resolve(".import-failed") : Paths.get(failed);
+        int concurrency = convertConcurrency > 0 ? convertConcurrency : Runtime.getRuntime().availableProcessors();
+        return Mono.defer(() -> {
+            Disposable progress = Flux.interval(progressInterval)
+                    .subscribe(i -> LOG.info("Import progress: {}", getStatistics().toJson()));
+            return Flux.using(() -> new Journal(journalPath, failedPath),
+                            log -> Mono.fromCallable(() -> files(directory, log.done))
+                                    .flatMapMany(Flux::fromIterable)
+                                    .flatMap(file -> convert(directory, file, log), concurrency)
+                                    .buffer(batchSize)
+                                    .flatMap(checks -> save(checks, log), writeConcurrency),
+                            Journal::close)
+                    .then(Mono.fromSupplier(this::getStatistics))
+                    .doFinally(signal -> progress.dispose());
+        });
+    }
+    /**
+     * Возвращает количество найденных, пропущенных (записанных в журнал при предыдущих запусках) файлов, объём
+     * прочитанных файлов, количество записанных, повторных и ошибочных чеков.
+     */
+    public Document getStatistics() {
+        return new Document("files", fileCount.get())
+                .append("skipped", skippedCount.get())
+                .append("bytes", byteCount.get())
+                .append("inserted", insertedCount.get())
+                .append("duplicates", duplicateCount.get())
+                .append("failed", failedCount.get());
+    }
+
+    private List<String> files(Path directory, Set<String> done) throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try(Stream<Path> paths = Files.walk(directory)) {
+            List<String> files = paths
+                    .filter(path -> Files.isRegularFile(path) && matcher.matches(path.getFileName()))
+                    .map(path -> directory.relativize(path).toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+            int found = files.size();
+            files.removeAll(done);
+            fileCount.addAndGet(found);
+            skippedCount.addAndGet(found - files.size());
+            return files;
+        }
+    }
+
+    private Mono<ImportedCheck> convert(Path directory, String file, Journal log) {
+        return Mono.fromCallable(() -> read(directory.resolve(file)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(buffer -> checksService.xml2RawDocument(Flux.just(buffer), file, null))
+                .map(document -> new ImportedCheck(file, document))
+                .onErrorResume(e -> {
+                    log.failed(file, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private DataBuffer read(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > maxDocumentSize.toBytes())
+                throw new IOException("File size " + size + " exceeds local.check.max-document-size");
+            ByteBuffer buffer = ByteBuffer.allocate((int)size);
+            while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+            buffer.flip();
+            byteCount.addAndGet(buffer.remaining());
+            return DefaultDataBufferFactory.sharedInstance.wrap(buffer);
+        }
+    }
+
+    private Mono<Void> save(List<ImportedCheck> checks, Journal log) {
+        return checkRepository.saveAll(checks.stream().map(check -> check.document).collect(Collectors.toList()))
+                .doOnNext(results -> {
+                    for(int i = 0; i < checks.size(); i++) {
+                        Document result = results.get(i);
+                        if(result.containsKey("Inserted")) {
+                            insertedCount.incrementAndGet();
+                            log.done(checks.get(i).file);
+                        }
+                        else if(result.containsKey("Duplicate")) {
+                            duplicateCount.incrementAndGet();
+                            log.done(checks.get(i).file);
+                        }
+                        else {
+                            log.failed(checks.get(i).file, result.getString("Error"));
+                        }
+                    }
+                    log.flush();
+                })
+                .onErrorResume(e -> {
+                    for(ImportedCheck check : checks) {
+                        log.failed(check.file, e.getMessage());
+                    }
+                    log.flush();
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private static class ImportedCheck {
+        final private String file;
+        final private RawBsonDocument document;
+
+        ImportedCheck(String file, RawBsonDocument document) {
+            this.file = file;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Журнал записанных файлов и файл ошибок импорта.
+     */
+    private class Journal {
+        final private Set<String> done = new HashSet<>();
+        final private BufferedWriter doneWriter;
+        final private BufferedWriter failedWriter;
+
+        Journal(Path donePath, Path failedPath) throws IOException {
+            if(Files.exists(donePath))
+                done.addAll(Files.readAllLines(donePath, StandardCharsets.UTF_8));
+            doneWriter = Files.newBufferedWriter(donePath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            failedWriter = Files.newBufferedWriter(failedPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        synchronized void done(String file) {
+            write(doneWriter, file);
+        }
+
+        synchronized void failed(String file, String message) {
+            failedCount.incrementAndGet();
+            LOG.warn("Import of {} failed: {}", file, message);
+            write(failedWriter, file + "\t" + (isNull(message) ? "" : message.replace('\n', ' ')));
+        }
+
+        synchronized void flush() {
+            try {
+                doneWriter.flush();
+                failedWriter.flush();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void close() {
+            try {
+                doneWriter.close();
+                failedWriter.close();
+            }
+            catch(IOException e) {
+                LOG.warn("Import journal is not closed: {}", e.getMessage());
+            }
+        }
+
+        private void write(BufferedWriter writer, String line) {
+            try {
+                writer.write(line);
+                writer.newLine();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.mongoReactive.service;
+
+import com.example.mongoReactive.repository.CheckRepository;
+import com.example.mongoReactive.util.IllegalObjectIdException;
+import com.example.mongoReactive.util.ReactorRepositoryMongoDB.ChangeListener;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Поток сохранённых чеков для подписчиков GET /api/checks/stream. Источник local.check.stream.source:
+ * SINK - чеки, успешно сохранённые этим экземпляром приложения (методы save, insert и saveAll репозитория чеков),
+ * CHANGE_STREAM - change stream коллекции чеков (требуется набор реплик, учитываются изменения всех экземпляров).
+ * Каждый подписчик получает собственный буфер local.check.stream.buffer-size чеков, при его переполнении
+ * (медленный клиент) по local.check.stream.overflow отбрасываются самые старые чеки (DROP_OLDEST) или
+ * подписка завершается ошибкой и соединение закрывается (DISCONNECT). Пока подписчиков нет, события
+ * не формируются.
+ */
+@Service
+public class CheckStreamService implements ChangeListener {
+    private static final Logger LOG = LoggerFactory.getLogger(CheckStreamService.class);
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    public enum Source {SINK, CHANGE_STREAM}
+    public enum Overflow {DROP_OLDEST, DISCONNECT}
+
+    private final CheckRepository checkRepository;
+    private final Sinks.Many<RawBsonDocument> sink = Sinks.many().multicast().directBestEffort();
+    private final Flux<RawBsonDocument> source;
+    private final int bufferSize;
+    private final Overflow overflow;
+    private final AtomicLong subscriberCount = new AtomicLong();
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong disconnectedCount = new AtomicLong();
+
+    CheckStreamService(CheckRepository checkRepository,
+                       @Value("${local.check.stream.source:SINK}") Source source,
+                       @Value("${local.check.stream.buffer-size:1024}") int bufferSize,
+                       @Value("${local.check.stream.overflow:DROP_OLDEST}") Overflow overflow) {
+        this.checkRepository = checkRepository;
+        this.bufferSize = bufferSize;
+        this.overflow = overflow;
+        if(source == Source.CHANGE_STREAM) {
+            this.source = changeStream(checkRepository);
+        }
+        else {
+            this.source = sink.asFlux();
+            checkRepository.addChangeListener(this);
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return sink.currentSubscriberCount() > 0;
+    }
+
+    @Override
+    public Mono<Void> changed(BsonValue id, BsonDocument before, BsonDocument after) {
+        BsonDocument event = new BsonDocument("_id", id);
+        for(String key : after.keySet()) {
+            if(!key.equals("_id"))
+                event.put(key, after.get(key));
+        }
+        emit(new RawBsonDocument(event, CODEC));
+        return Mono.empty();
+    }
+    /**
+     * Возвращает поток сохраняемых чеков. Если задан идентификатор after, сначала передаются сохранённые в базе
+     * чеки с большим идентификатором в порядке идентификаторов, затем - новые. Подписка на новые чеки выполняется
+     * до чтения базы, поэтому чек, сохранённый во время чтения, может быть передан дважды, но не будет пропущен.
+     * Изменения чеков с меньшим идентификатором, выполненные до подписки, не передаются.
+     * @param after идентификатор последнего полученного чека или пустая строка
+     */
+    public Flux<RawBsonDocument> stream(String after) throws IllegalObjectIdException {
+        if(after.isEmpty())
+            return subscriber(source);
+        Flux<RawBsonDocument> replay = checkRepository.findPage(after, Integer.MAX_VALUE, Collections.emptyList());
+        return Flux.defer(() -> {
+            AtomicReference<Disposable> connection = new AtomicReference<>();
+            Flux<RawBsonDocument> live = subscriber(source).publish(1).autoConnect(0, connection::set);
+            return Flux.concat(replay, live)
+                    .doFinally(signal -> connection.get().dispose());
+        });
+    }
+    /**
+     * Возвращает количество подписчиков, переданных, отброшенных из-за переполнения буферов событий и количество
+     * отключённых подписчиков.
+     */
+    public Document getStatistics() {
+        return new Document("subscribers", subscriberCount.get())
+                .append("events", eventCount.get())
+                .append("dropped", droppedCount.get())
+                .append("disconnected", disconnectedCount.get());
+    }
+
+    private synchronized void emit(RawBsonDocument event) {
+        // directBestEffort не передаёт событие только подписчикам без запроса, буфер подписчика запрашивает всё
+        if(sink.tryEmitNext(event).isSuccess())
+            eventCount.incrementAndGet();
+    }
+
+    private Flux<RawBsonDocument> subscriber(Flux<RawBsonDocument> source) {
+        Flux<RawBsonDocument> buffered = overflow == Overflow.DISCONNECT
+                ? source.onBackpressureBuffer(bufferSize, dropped -> disconnectedCount.incrementAndGet(),
+                        BufferOverflowStrategy.ERROR)
+                : source.onBackpressureBuffer(bufferSize, dropped -> droppedCount.incrementAndGet(),
+                        BufferOverflowStrategy.DROP_OLDEST);
+        return buffered
+                .doOnSubscribe(s -> subscriberCount.incrementAndGet())
+                .doFinally(signal -> subscriberCount.decrementAndGet());
+    }
+
+    private Flux<RawBsonDocument> changeStream(CheckRepository checkRepository) {
+        return Flux.defer(() -> Flux.from(checkRepository.getCollection()
+                        .watch(Collections.singletonList(Aggregates.match(Filters.in("operationType",
+                                Arrays.asList("insert", "update", "replace")))), RawBsonDocument.class)
+                        .fullDocument(FullDocument.UPDATE_LOOKUP)))
+                .mapNotNull(ChangeStreamDocument::getFullDocument)
+                .doOnNext(event -> eventCount.incrementAndGet())
+                .doOnError(e -> LOG.warn("Change stream failed: {}", e.getMessage()))
+                .share();
+    }
+}
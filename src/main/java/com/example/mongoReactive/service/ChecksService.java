@@ -1,14 +1,37 @@
 package com.example.mongoReactive.service;
 
+import com.example.mongoReactive.util.AttributeStatistics;
+import com.example.mongoReactive.util.BoundedScheduler;
+import com.example.mongoReactive.util.BsonWriterCursor;
 import com.example.mongoReactive.util.ConvertDataException;
+import com.example.mongoReactive.util.DateConverter;
+import com.example.mongoReactive.util.MergePlan;
+import com.example.mongoReactive.util.NumberConverter;
+import com.example.mongoReactive.util.NumberConverter.NumberType;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 import static com.example.mongoReactive.util.DocumentBuilder.*;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 /**
  *
@@ -18,171 +41,260 @@ import static com.example.mongoReactive.util.DocumentBuilder.*;
 public class ChecksService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChecksService.class);
+    /** План преобразования чека, строится один раз и используется всеми запросами. */
+    private final DocumentNode rootNode;
+    private final ValueReceiver rootReceiver;
+    /** Статистика неизвестных и непреобразуемых атрибутов. */
+    private final AttributeStatistics attributeStatistics = new AttributeStatistics(LOG);
+    /** Максимальный размер чека, получаемого частями. */
+    @Value("${local.check.max-document-size:1MB}")
+    private DataSize maxDocumentSize = DataSize.ofMegabytes(1);
+    /** Максимальный размер пакета чеков, получаемого частями. */
+    @Value("${local.check.max-batch-size:256MB}")
+    private DataSize maxBatchSize = DataSize.ofMegabytes(256);
+    /** Планировщик, в потоках которого выполняется преобразование чеков, получаемых частями. */
+    private Scheduler convertScheduler = Schedulers.immediate();
+    /** Количество частей чека, получаемых до начала их обработки планировщиком. */
+    private static final int CONVERT_PREFETCH = 4;
+
+    public ChecksService() {
+        this(Collections.emptyMap());
+    }
+
+    public ChecksService(Map<String, NumberType> numberTypes) {
+        this(numberTypes, "", "");
+    }
     /**
-     * Преобразует чек из формата XML в объект типа bson.Document
-     * @return объект запроса
+     * Строит план преобразования чека.
+     * @param numberTypes типы хранения числовых атрибутов price, quantity, sum и total, по умолчанию Double
+     * @param timestampFormat формат атрибута timestamp для хранения в виде даты BSON, по умолчанию хранится строка.
+     *                        Чек с датой в другом формате отклоняется; чеки, сохранённые до включения формата,
+     *                        хранят строку и не учитываются запросами по интервалу дат и итогами
+     * @param timestampZone часовой пояс атрибута timestamp, по умолчанию пояс системы
      */
-    public Document xml2Document(String paymentXML, String paymentFileName,  Document template)
-            throws ConvertDataException, IOException {
-        Document result = new Document();
-        DocumentNode rootNode = createDocumentNode(null, "", result);
+    @Autowired
+    public ChecksService(@Value("#{${local.check.number-types:{:}}}") Map<String, NumberType> numberTypes,
+                         @Value("${local.check.timestamp-format:}") String timestampFormat,
+                         @Value("${local.check.timestamp-zone:}") String timestampZone) {
+        ValueConverter timestamp = DateConverter.of(timestampFormat, timestampZone);
+        ValueConverter price = NumberConverter.of(numberTypes.getOrDefault("price", NumberType.DOUBLE));
+        ValueConverter quantity = NumberConverter.of(numberTypes.getOrDefault("quantity", NumberType.DOUBLE));
+        ValueConverter sum = NumberConverter.of(numberTypes.getOrDefault("sum", NumberType.DOUBLE));
+        ValueConverter total = NumberConverter.of(numberTypes.getOrDefault("total", NumberType.DOUBLE));
+        rootNode = createDocumentNode(null, "");
         DocumentNode checkNode = createDocumentNode(rootNode, "check");
         DocumentNode checkReceiptNode = createDocumentNode(checkNode, "receipt");
         DocumentNode checkReceiptClientNode = createDocumentNode(checkReceiptNode, "client");
-        ValueReceiver checkReceiptClientReceiver = (Context ctx) -> {
-            String key = ctx.getKey();
-            if("email".equals(ctx.getKey()))
-                checkReceiptClientNode.append(key, String::valueOf,  ctx);
-            else
-                LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            return null;
-        };
+        ValueReceiver checkReceiptClientReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt\\client"))
+                .on(valueReceiver(checkReceiptClientNode, String::valueOf), "email");
 
         DocumentNode checkReceiptCompanyNode = createDocumentNode(checkReceiptNode, "company");
-        ValueReceiver checkReceiptCompanyReceiver = (Context ctx) -> {
-            String key = ctx.getKey();
-            switch(key) {
-                case "email":
-                case "sno":
-                case "inn":
-                case "payment_address": checkReceiptCompanyNode.append(key, String::valueOf, ctx);
-                    break;
-                default: LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            }
-            return null;
-        };
+        ValueReceiver checkReceiptCompanyReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt\\company"))
+                .on(valueReceiver(checkReceiptCompanyNode, String::valueOf), "email", "sno", "inn", "payment_address");
 
         DocumentNode checkReceiptItemsNode = createDocumentNode(checkReceiptNode, "items", true);
         DocumentNode checkReceiptItemsItemNode = createDocumentNode(checkReceiptItemsNode, "item");
         DocumentNode checkReceiptItemsItemVatNode = createDocumentNode(checkReceiptItemsItemNode, "vat");
-        ValueReceiver checkReceiptItemsItemVatReceiver = typeSumReceiver(checkReceiptItemsItemVatNode);
-
-        ValueReceiver checkReceiptItemsItemReceiver = (Context ctx) -> {
-            ValueReceiver receiver = null;
-            String key = ctx.getKey();
-            switch(key) {
-                case "price":
-                case "quantity":
-                case "sum": checkReceiptItemsItemNode.append(key, Double::parseDouble, ctx);
-                    break;
-                case "name":
-                case "measurement_unit":
-                case "payment_method":
-                case "payment_object": checkReceiptItemsItemNode.append(key, String::valueOf, ctx);
-                    break;
-                case "vat": receiver = testAndGetReceiver(checkReceiptItemsItemVatReceiver, ctx); break;
-                default: LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            }
-            return receiver;
-        };
-        ValueReceiver checkReceiptItemsItemArrayReceiver = arrayReceiver(checkReceiptItemsItemNode, checkReceiptItemsItemReceiver);
-
-        ValueReceiver checkReceiptItemsReceiver = (Context ctx) -> {
-            ValueReceiver receiver = null;
-            String key = ctx.getKey();
-            if("item".equals(key))
-                receiver = testAndGetReceiver(ctx.getJsonValue().isObject() ?
-                            checkReceiptItemsItemReceiver : checkReceiptItemsItemArrayReceiver, ctx);
-            else
-                LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            return receiver;
-        };
+        ValueReceiver checkReceiptItemsItemVatReceiver = typeSumReceiver(checkReceiptItemsItemVatNode, "check\\receipt\\items\\item\\vat", sum);
+
+        ValueReceiver checkReceiptItemsItemReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt\\items\\item"))
+                .on(valueReceiver(checkReceiptItemsItemNode, price), "price")
+                .on(valueReceiver(checkReceiptItemsItemNode, quantity), "quantity")
+                .on(valueReceiver(checkReceiptItemsItemNode, sum), "sum")
+                .on(valueReceiver(checkReceiptItemsItemNode, String::valueOf),
+                        "name", "measurement_unit", "payment_method", "payment_object")
+                .on(nodeReceiver(checkReceiptItemsItemVatReceiver), "vat");
+        ValueReceiver checkReceiptItemsReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt\\items"))
+                .on(elementReceiver(arrayReceiver(checkReceiptItemsItemNode, checkReceiptItemsItemReceiver)), "item");
 
         DocumentNode checkReceiptPaymentsNode = createDocumentNode(checkReceiptNode, "payments", true);
         DocumentNode checkReceiptPaymentsPaymentNode = createDocumentNode(checkReceiptPaymentsNode, "payment");
-        ValueReceiver checkReceiptPaymentsPaymentReceiver = typeSumReceiver(checkReceiptPaymentsPaymentNode);
-        ValueReceiver checkReceiptPaymentsArrayReceiver = arrayReceiver(checkReceiptPaymentsPaymentNode, checkReceiptPaymentsPaymentReceiver);
-
-        ValueReceiver checkReceiptPaymentsReceiver = (Context ctx) -> {
-            ValueReceiver receiver = null;
-            String key = ctx.getKey();
-            if("payment".equals(key))
-                receiver = testAndGetReceiver(ctx.getJsonValue().isObject() ?
-                        checkReceiptPaymentsPaymentReceiver : checkReceiptPaymentsArrayReceiver, ctx);
-            else
-                LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            return receiver;
-        };
+        ValueReceiver checkReceiptPaymentsPaymentReceiver = typeSumReceiver(checkReceiptPaymentsPaymentNode, "check\\receipt\\payments\\payment", sum);
+        ValueReceiver checkReceiptPaymentsReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt\\payments"))
+                .on(elementReceiver(arrayReceiver(checkReceiptPaymentsPaymentNode, checkReceiptPaymentsPaymentReceiver)),
+                        "payment");
 
         DocumentNode checkReceiptVatsNode = createDocumentNode(checkReceiptNode, "vats", true);
         DocumentNode checkReceiptVatsVatNode = createDocumentNode(checkReceiptVatsNode, "vat");
-        ValueReceiver checkReceiptVatsVatReceiver = typeSumReceiver(checkReceiptVatsVatNode);
-        ValueReceiver checkReceiptVatsVatArrayReceiver = arrayReceiver(checkReceiptVatsVatNode, checkReceiptVatsVatReceiver);
-
-        ValueReceiver checkReceiptVatsReceiver = (Context ctx) -> {
-            ValueReceiver receiver = null;
-            String key = ctx.getKey();
-            if("vat".equals(key))
-                receiver = testAndGetReceiver(ctx.getJsonValue().isObject() ?
-                        checkReceiptVatsVatReceiver : checkReceiptVatsVatArrayReceiver, ctx);
-            else
-                LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            return receiver;
-        };
+        ValueReceiver checkReceiptVatsVatReceiver = typeSumReceiver(checkReceiptVatsVatNode, "check\\receipt\\vats\\vat", sum);
+        ValueReceiver checkReceiptVatsReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt\\vats"))
+                .on(elementReceiver(arrayReceiver(checkReceiptVatsVatNode, checkReceiptVatsVatReceiver)), "vat");
 
-        ValueReceiver checkReceiptReceiver = (Context ctx) -> {
-            ValueReceiver receiver = null;
-            String key = ctx.getKey();
-            switch(key) {
-                case "client": receiver = testAndGetReceiver(checkReceiptClientReceiver, ctx); break;
-                case "company": receiver = testAndGetReceiver(checkReceiptCompanyReceiver, ctx); break;
-                case "items": receiver = testAndGetReceiver(checkReceiptItemsReceiver, ctx); break;
-                case "payments": receiver = testAndGetReceiver(checkReceiptPaymentsReceiver, ctx); break;
-                case "vats": receiver = testAndGetReceiver(checkReceiptVatsReceiver, ctx); break;
-                case "total": checkReceiptNode.append(key, Double::parseDouble, ctx); break;
-                case "operation":
-                case "cashier": checkReceiptNode.append(key, String::valueOf, ctx);
-                    break;
-                default: LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            }
-            return receiver;
-        };
-        ValueReceiver checkReceiver = (Context ctx) -> {
-            ValueReceiver receiver = null;
-            String key = ctx.getKey();
-            switch(key) {
-                case "timestamp":
-                case "external_id": checkNode.append(key, String::valueOf, ctx);
-                    break;
-                case "is_bso": checkNode.append(key, Boolean::valueOf, ctx); break;
-                case "receipt": receiver = testAndGetReceiver(checkReceiptReceiver, ctx); break;
-                default: LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            }
-            return receiver;
-        };
+        ValueReceiver checkReceiptReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check\\receipt"))
+                .on(nodeReceiver(checkReceiptClientReceiver), "client")
+                .on(nodeReceiver(checkReceiptCompanyReceiver), "company")
+                .on(nodeReceiver(checkReceiptItemsReceiver), "items")
+                .on(nodeReceiver(checkReceiptPaymentsReceiver), "payments")
+                .on(nodeReceiver(checkReceiptVatsReceiver), "vats")
+                .on(valueReceiver(checkReceiptNode, total), "total")
+                .on(valueReceiver(checkReceiptNode, String::valueOf), "operation", "cashier");
+        ValueReceiver checkReceiver = new KeyReceiver(attributeStatistics.unknownReceiver("check"))
+                .on(valueReceiver(checkNode, timestamp), "timestamp")
+                .on(valueReceiver(checkNode, String::valueOf), "external_id")
+                .on(valueReceiver(checkNode, Boolean::valueOf), "is_bso")
+                .on(nodeReceiver(checkReceiptReceiver), "receipt");
 
-        ValueReceiver rootReceiver = new ValueReceiver() {
+        rootReceiver = new ValueReceiver() {
             public ValueReceiver receive(Context ctx) {
-                if(ctx.getJsonValue().isObject() && ctx.getKey().equals("check")) return checkReceiver;
+                if(ctx.isObjectValue() && ctx.getKey().equals("check")) return checkReceiver;
                 return this;
             }
         };
+    }
+    @Autowired
+    void setConvertScheduler(BoundedScheduler convertScheduler) {
+        this.convertScheduler = convertScheduler.getScheduler();
+    }
+    /**
+     * Преобразует чек из формата XML в объект типа bson.Document. Атрибуты шаблона template, отсутствующие в чеке,
+     * добавляются в элемент check; шаблон компилируется один раз методом MergePlan.compile.
+     * @return объект запроса
+     */
+    public Document xml2Document(String paymentXML, String paymentFileName,  MergePlan template)
+            throws ConvertDataException, IOException {
+        Document result = new Document();
         try {
-            forEachNode(XML2Node(paymentXML), paymentFileName, rootReceiver, null);
-            appendNotExistsInDocument(template, ((Document) result.get("check")));
+            forEachNode(XML2Reader(paymentXML), paymentFileName, rootReceiver, new DocumentTreeCursor(rootNode, result));
+            applyTemplate(template, result);
+        }
+        catch(ConvertDataException e) {
+            attributeStatistics.unconvertible(e);
+            LOG.warn(e.getMessage());
+            throw e;
         }
-        catch(ConvertDataException | IOException e) {
+        catch(IOException e) {
             LOG.warn(e.getMessage());
             throw e;
         }
         return result;
     }
+    /**
+     * Преобразует чек из формата XML сразу в двоичный документ BSON, без формирования объекта bson.Document.
+     * Структура и типы атрибутов совпадают с результатом xml2Document. При наличии шаблона документ формируется
+     * через xml2Document.
+     * @return объект запроса
+     */
+    public RawBsonDocument xml2RawDocument(String paymentXML, String paymentFileName,  MergePlan template)
+            throws ConvertDataException, IOException {
+        if(nonNull(template)) {
+            return new RawBsonDocument(xml2Document(paymentXML, paymentFileName, template), new DocumentCodec());
+        }
+        BsonWriterCursor cursor = new BsonWriterCursor(rootNode);
+        try {
+            forEachNode(XML2Reader(paymentXML), paymentFileName, rootReceiver, cursor);
+        }
+        catch(ConvertDataException e) {
+            attributeStatistics.unconvertible(e);
+            LOG.warn(e.getMessage());
+            throw e;
+        }
+        catch(IOException e) {
+            LOG.warn(e.getMessage());
+            throw e;
+        }
+        return cursor.toRawDocument();
+    }
 
-    static private ValueReceiver typeSumReceiver(final DocumentNode documentNode) {
-        return (Context ctx) -> {
-            String key = ctx.getKey();
-            switch(key) {
-                case "type": documentNode.append(key, String::valueOf,  ctx); break;
-                case "sum":  documentNode.append(key, Double::parseDouble,  ctx); break;
-                default: LOG.info(buildMsgInfo("Unknown attribute", ctx));
-            }
-            return null;
-        };
+    /**
+     * Преобразует чек, получаемый частями, в объект типа bson.Document. Каждая часть разбирается сразу после
+     * получения в потоке планировщика преобразования, размер чека ограничен параметром local.check.max-document-size.
+     * @return объект запроса
+     */
+    public Mono<Document> xml2Document(Flux<DataBuffer> paymentXML, String paymentFileName,  MergePlan template) {
+        return Mono.defer(() -> {
+                    Document result = new Document();
+                    return forEachNode(paymentXML.publishOn(convertScheduler, CONVERT_PREFETCH),
+                                maxDocumentSize.toBytes(), paymentFileName, rootReceiver,
+                                new DocumentTreeCursor(rootNode, result))
+                            .then(Mono.fromCallable(() -> {
+                                applyTemplate(template, result);
+                                return result;
+                            }));
+                })
+                .doOnError(ConvertDataException.class, attributeStatistics::unconvertible)
+                .doOnError(e -> LOG.warn(e.getMessage()));
+    }
+    /**
+     * Преобразует чек, получаемый частями, сразу в двоичный документ BSON.
+     * @return объект запроса
+     */
+    public Mono<RawBsonDocument> xml2RawDocument(Flux<DataBuffer> paymentXML, String paymentFileName,  MergePlan template) {
+        if(nonNull(template)) {
+            return xml2Document(paymentXML, paymentFileName, template)
+                    .map(document -> new RawBsonDocument(document, new DocumentCodec()));
+        }
+        return Mono.defer(() -> forEachNode(paymentXML.publishOn(convertScheduler, CONVERT_PREFETCH),
+                    maxDocumentSize.toBytes(), paymentFileName, rootReceiver, new BsonWriterCursor(rootNode)))
+                .map(cursor -> ((BsonWriterCursor) cursor).toRawDocument())
+                .doOnError(ConvertDataException.class, attributeStatistics::unconvertible)
+                .doOnError(e -> LOG.warn(e.getMessage()));
+    }
+
+    /**
+     * Преобразует пакет чеков, получаемый частями, в двоичные документы BSON. Пакет содержит корневой элемент, каждый
+     * дочерний элемент которого преобразуется как отдельный чек сразу после получения. Ошибка преобразования чека
+     * возвращается в его результате и не прерывает обработку пакета. Элемент, не являющийся чеком (элемент
+     * с другим именем или чек без атрибутов), возвращается с ошибкой ConvertDataException.
+     * @return результаты преобразования, объект ресивера содержит RawBsonDocument
+     */
+    public Flux<NodeResult> xml2RawDocuments(Flux<DataBuffer> paymentsXML, String paymentsFileName) {
+        return forEachChildNode(paymentsXML.publishOn(convertScheduler, CONVERT_PREFETCH),
+                    maxBatchSize.toBytes(), paymentsFileName, rootReceiver,
+                    () -> new BsonWriterCursor(rootNode))
+                .map(result -> isNull(result.getError())
+                        ? checkResult(result.getIndex(), ((BsonWriterCursor) result.getReceiverObject()).toRawDocument())
+                        : result)
+                .doOnNext(result -> {
+                    if(result.getError() instanceof ConvertDataException)
+                        attributeStatistics.unconvertible((ConvertDataException) result.getError());
+                    if(nonNull(result.getError()))
+                        LOG.warn(result.getError().getMessage());
+                })
+                .doOnError(ConvertDataException.class, attributeStatistics::unconvertible)
+                .doOnError(e -> LOG.warn(e.getMessage()));
+    }
+
+    private static NodeResult checkResult(long index, RawBsonDocument document) {
+        BsonValue check = document.get("check");
+        if(isNull(check) || !check.isDocument() || check.asDocument().isEmpty())
+            return new NodeResult(index, null, new ConvertDataException("Element " + index + " is not a check"));
+        return new NodeResult(index, document, null);
+    }
+
+    /**
+     * Возвращает статистику неизвестных и непреобразуемых атрибутов чеков.
+     */
+    public AttributeStatistics getAttributeStatistics() {
+        return attributeStatistics;
+    }
+
+    @Scheduled(fixedDelayString = "${local.check.attribute-summary-period:60000}")
+    public void logAttributeStatistics() {
+        attributeStatistics.logSummary();
+    }
+
+    static private void applyTemplate(MergePlan template, Document result) {
+        Document check = (Document) result.get("check");
+        if(nonNull(template) && nonNull(check))
+            template.apply(check);
+    }
+
+    private ValueReceiver typeSumReceiver(final DocumentNode documentNode, String path, ValueConverter sum) {
+        return new KeyReceiver(attributeStatistics.unknownReceiver(path))
+                .on(valueReceiver(documentNode, String::valueOf), "type")
+                .on(valueReceiver(documentNode, sum), "sum");
+    }
+    /**
+     * Возвращает ресивер повторяющегося элемента. Массив элементов обрабатывается ресивером массива, одиночный
+     * элемент (в том числе каждый элемент при потоковой обработке XML) добавляется в массив как новый узел.
+     */
+    static private ValueReceiver elementReceiver(final ValueReceiver arrayReceiver) {
+        return (Context ctx) -> ctx.isObjectValue() ? arrayReceiver.receive(ctx) : testAndGetReceiver(arrayReceiver, ctx);
     }
 
     static private ValueReceiver arrayReceiver(final DocumentNode documentNode, final ValueReceiver newReceiver) {
         return (Context ctx) -> {
-            documentNode.newNode();
+            documentNode.newNode((DocumentCursor)ctx.getReceiverObject());
             return testAndGetReceiver(newReceiver, ctx);
         };
     }
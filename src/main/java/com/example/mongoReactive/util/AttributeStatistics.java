@@ -0,0 +1,142 @@
+package com.example.mongoReactive.util;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+import static java.util.Objects.isNull;
+
+/**
+ * Класс AttributeStatistics подсчитывает неизвестные и непреобразуемые атрибуты документов по пути к атрибуту,
+ * например check\receipt\items\item\new_field. Путь к родительскому узлу задаётся при построении плана, поэтому
+ * повторная регистрация атрибута не требует формирования строк. В журнал пишется первая регистрация атрибута
+ * и периодическая сводка.
+ *
+ * @author Морозов Валентин
+ */
+public class AttributeStatistics {
+    /** Максимальное количество различных ключей для одного пути, остальные ключи учитываются как "*". */
+    final private static int MAX_KEYS = 256;
+    final private static String OTHER_KEY = "*";
+
+    final private Logger log;
+    final private List<PathCounters> unknown = new CopyOnWriteArrayList<>();
+    final private Map<String, PathCounters> unconvertible = new ConcurrentHashMap<>();
+
+    public AttributeStatistics(Logger log) {
+        this.log = log;
+    }
+    /**
+     * Создаёт ресивер, учитывающий неизвестные атрибуты узла.
+     * @param path путь к узлу
+     * @return объект, принимающий неизвестные атрибуты
+     */
+    public ValueReceiver unknownReceiver(String path) {
+        PathCounters counters = new PathCounters(path);
+        unknown.add(counters);
+        return (Context ctx) -> {
+            if(counters.increment(ctx.getKey()) && log.isInfoEnabled())
+                log.info(buildMsgInfo("Unknown attribute", ctx));
+            return null;
+        };
+    }
+    /**
+     * Учитывает атрибут, значение которого не удалось преобразовать.
+     * @param e исключение преобразования
+     */
+    public void unconvertible(ConvertDataException e) {
+        if(isNull(e.getPath()))
+            return;
+        unconvertible.computeIfAbsent(e.getPath(), PathCounters::new).increment(e.getKey());
+    }
+    /**
+     * Возвращает количество неизвестных и непреобразуемых атрибутов по пути к атрибуту.
+     * @return объект статистики
+     */
+    public Document getStatistics() {
+        Document unknownDocument = new Document();
+        for(PathCounters counters : unknown) {
+            counters.appendTo(unknownDocument);
+        }
+        Document unconvertibleDocument = new Document();
+        for(PathCounters counters : unconvertible.values()) {
+            counters.appendTo(unconvertibleDocument);
+        }
+        return new Document("unknown", unknownDocument).append("unconvertible", unconvertibleDocument);
+    }
+    /**
+     * Пишет в журнал количество атрибутов, зарегистрированных после предыдущей сводки.
+     */
+    public void logSummary() {
+        if(!log.isInfoEnabled())
+            return;
+        StringBuilder summary = new StringBuilder();
+        for(PathCounters counters : unknown) {
+            counters.appendChanges(summary);
+        }
+        if(summary.length() > 0)
+            log.info("Unknown attributes since last summary:" + summary);
+        summary.setLength(0);
+        for(PathCounters counters : unconvertible.values()) {
+            counters.appendChanges(summary);
+        }
+        if(summary.length() > 0)
+            log.info("Unconvertible attributes since last summary:" + summary);
+    }
+    /**
+     * Класс PathCounters хранит счётчики атрибутов одного узла.
+     */
+    private static class PathCounters {
+        final private String path;
+        final private Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+        PathCounters(String path) {
+            this.path = path;
+        }
+        /**
+         * Увеличивает счётчик атрибута.
+         * @param key ключ атрибута
+         * @return истина, если атрибут зарегистрирован впервые
+         */
+        boolean increment(String key) {
+            Counter counter = counters.get(key);
+            boolean created = false;
+            if(isNull(counter)) {
+                Counter newCounter = new Counter();
+                counter = counters.putIfAbsent(counters.size() < MAX_KEYS ? key : OTHER_KEY, newCounter);
+                if(isNull(counter)) {
+                    counter = newCounter;
+                    created = true;
+                }
+            }
+            counter.count.increment();
+            return created;
+        }
+
+        void appendTo(Document document) {
+            counters.forEach((key, counter) -> document.append(path + "\\" + key, counter.count.sum()));
+        }
+
+        void appendChanges(StringBuilder summary) {
+            counters.forEach((key, counter) -> {
+                long count = counter.count.sum();
+                if(count > counter.logged) {
+                    summary.append(' ').append(path).append('\\').append(key).append('=').append(count - counter.logged);
+                    counter.logged = count;
+                }
+            });
+        }
+    }
+
+    private static class Counter {
+        final private LongAdder count = new LongAdder();
+        /** Значение счётчика на момент последней сводки. */
+        private volatile long logged;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.mongoReactive.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Класс BloomFilter представляет потокобезопасный фильтр Блума строковых ключей. Метод mightContain возвращает ложь,
+ * если ключ точно не добавлялся, и истину, если ключ, возможно, добавлялся (с вероятностью ложного срабатывания fpp).
+ * При превышении ожидаемого количества ключей фильтр очищается, поэтому после очистки ранее добавленные ключи
+ * считаются новыми и должны проверяться по источнику данных (например, уникальному индексу).
+ *
+ * @author Морозов Валентин
+ */
+public class BloomFilter {
+    final private AtomicLongArray bits;
+    final private long bitCount;
+    final private int hashCount;
+    final private long capacity;
+    final private AtomicLong keyCount = new AtomicLong();
+
+    /**
+     * @param expectedKeys ожидаемое количество ключей
+     * @param fpp допустимая вероятность ложного срабатывания
+     */
+    public BloomFilter(long expectedKeys, double fpp) {
+        long bitCount = (long)Math.ceil(-expectedKeys * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int)Math.max(1, (bitCount + 63) / 64));
+        this.bitCount = (long)bits.length() * 64;
+        this.hashCount = Math.max(1, (int)Math.round((double)this.bitCount / expectedKeys * Math.log(2)));
+        this.capacity = expectedKeys;
+    }
+
+    public boolean mightContain(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        for(int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            if((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public void add(String key) {
+        if(keyCount.incrementAndGet() > capacity) {
+            clear();
+        }
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        for(int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            int index = (int)(bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            while(((word = bits.get(index)) & mask) == 0 && !bits.compareAndSet(index, word, word | mask));
+        }
+    }
+
+    private synchronized void clear() {
+        if(keyCount.get() > capacity) {
+            for(int i = 0; i < bits.length(); i++) {
+                bits.set(i, 0);
+            }
+            keyCount.set(1);
+        }
+    }
+    /**
+     * Возвращает 64-битный хеш FNV-1a символов ключа с дополнительным перемешиванием.
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for(int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
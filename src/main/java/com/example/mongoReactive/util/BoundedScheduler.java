@@ -0,0 +1,58 @@
+package com.example.mongoReactive.util;
+
+import org.bson.Document;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Класс BoundedScheduler представляет планировщик с фиксированным количеством потоков и ограниченной очередью задач.
+ * При заполнении очереди новая задача сразу отклоняется исключением RejectedExecutionException, а не ожидает
+ * в очереди.
+ *
+ * @author Морозов Валентин
+ */
+public class BoundedScheduler {
+    final private ThreadPoolExecutor executor;
+    final private Scheduler scheduler;
+    final private AtomicLong rejectedCount = new AtomicLong();
+
+    public BoundedScheduler(String name, int threads, int queueCapacity) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(name + "-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory,
+                (task, executor) -> {
+                    rejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException("Queue " + name + " is full");
+                });
+        this.scheduler = Schedulers.fromExecutorService(executor, name);
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+    /**
+     * Возвращает состояние планировщика: количество потоков, выполняемых и ожидающих задач, количество отклонённых
+     * задач.
+     * @return объект состояния
+     */
+    public Document getStatistics() {
+        return new Document("threads", executor.getMaximumPoolSize())
+                .append("active", executor.getActiveCount())
+                .append("queued", executor.getQueue().size())
+                .append("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity())
+                .append("completed", executor.getCompletedTaskCount())
+                .append("rejected", rejectedCount.get());
+    }
+
+    public void dispose() {
+        scheduler.dispose();
+    }
+}
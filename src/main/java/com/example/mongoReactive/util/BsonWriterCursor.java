@@ -0,0 +1,231 @@
+package com.example.mongoReactive.util;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Класс BsonWriterCursor формирует документ по плану DocumentNode сразу в двоичном формате BSON, без построения
+ * дерева объектов Document. Узлы открываются при добавлении первого атрибута и закрываются при переходе к узлу,
+ * не являющемуся дочерним, поэтому порядок и типы атрибутов совпадают с документом DocumentTreeCursor.
+ * <p>
+ * Повторный атрибут узла или повторный узел, закрытый после перехода к другому узлу, в документе DocumentTreeCursor
+ * заменяет прежнее значение или дополняет прежний узел. Записанные в BSON атрибуты изменить нельзя, поэтому
+ * при первом повторе сформированная часть документа преобразуется в дерево объектов Document и документ
+ * дописывается курсором DocumentTreeCursor.
+ *
+ * @author Морозов Валентин
+ */
+public class BsonWriterCursor extends DocumentCursor {
+    final private static CodecRegistry codecRegistry = MongoClientSettings.getDefaultCodecRegistry();
+    final private static EncoderContext encoderContext = EncoderContext.builder().build();
+    final private static DocumentCodec documentCodec = new DocumentCodec();
+    final private static byte NEW = 0;
+    final private static byte OPEN = 1;
+    final private static byte CLOSED = 2;
+
+    final private BasicOutputBuffer buffer = new BasicOutputBuffer();
+    final private BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+    /** Переменная для хранения состояния узлов по индексу узла плана. */
+    final private byte[] states;
+    /** Переменная для хранения стека открытых узлов. */
+    final private DocumentNode[] openNodes;
+    /** Переменная для хранения ключей, записанных в открытые узлы, по индексу узла плана. */
+    final private List<List<String>> keys;
+    private int depth;
+    final private DocumentNode rootNode;
+    /** Курсор дерева документов после первого повтора, null пока повторов нет. */
+    private DocumentTreeCursor treeCursor;
+    private Document treeDocument;
+
+    public BsonWriterCursor(DocumentNode rootNode) {
+        this.states = new byte[rootNode.getNodeCount()];
+        this.openNodes = new DocumentNode[rootNode.getNodeCount()];
+        this.keys = new ArrayList<>(Collections.nCopies(rootNode.getNodeCount(), null));
+        this.rootNode = rootNode;
+        this.openNodes[depth++] = rootNode;
+        this.states[rootNode.getIndex()] = OPEN;
+        this.keys.set(rootNode.getIndex(), new ArrayList<>());
+        writer.writeStartDocument();
+    }
+
+    @Override
+    protected void append(DocumentNode node, String key, Object value) throws ConvertDataException {
+        if(isNull(treeCursor) && (isRepeated(node) || hasKey(node, key)))
+            toTreeCursor();
+        if(nonNull(treeCursor)) {
+            treeCursor.append(node, key, value);
+            return;
+        }
+        open(node);
+        if(!node.isArray()) {
+            writer.writeName(key);
+            keys.get(node.getIndex()).add(key);
+        }
+        writeValue(value);
+    }
+
+    @Override
+    protected void newNode(DocumentNode node) throws ConvertDataException {
+        DocumentNode parentNode = node.getParentDocumentNode();
+        if(isNull(treeCursor) && (isRepeated(parentNode) || hasKey(parentNode, node.getKey())))
+            toTreeCursor();
+        if(nonNull(treeCursor)) {
+            treeCursor.newNode(node);
+            return;
+        }
+        open(parentNode);
+        resetNode(node);
+        open(node);
+    }
+    /**
+     * Закрывает все открытые узлы и возвращает сформированный документ.
+     * @return документ в формате BSON
+     */
+    public RawBsonDocument toRawDocument() {
+        if(nonNull(treeCursor))
+            return new RawBsonDocument(treeDocument, documentCodec);
+        closeTo(openNodes[0]);
+        writer.writeEndDocument();
+        writer.close();
+        return new RawBsonDocument(buffer.getInternalBuffer(), 0, buffer.getPosition());
+    }
+    /**
+     * Открывает узел и его родительские узлы, закрывая открытые узлы, не являющиеся родительскими.
+     * @param node узел плана
+     */
+    private void open(DocumentNode node) throws ConvertDataException {
+        if(states[node.getIndex()] == OPEN) {
+            closeTo(node);
+            return;
+        }
+        if(states[node.getIndex()] == CLOSED) {
+            throw new ConvertDataException("Repeated node \"" + node.getKey() + "\"");
+        }
+        DocumentNode parentNode = node.getParentDocumentNode();
+        open(parentNode);
+        if(parentNode.isArray()) {
+            if(node.isArray()) writer.writeStartArray();
+            else writer.writeStartDocument();
+        }
+        else {
+            if(node.isArray()) writer.writeStartArray(node.getKey());
+            else writer.writeStartDocument(node.getKey());
+            keys.get(parentNode.getIndex()).add(node.getKey());
+        }
+        openNodes[depth++] = node;
+        states[node.getIndex()] = OPEN;
+        if(!node.isArray()) {
+            if(isNull(keys.get(node.getIndex()))) keys.set(node.getIndex(), new ArrayList<>());
+            else keys.get(node.getIndex()).clear();
+        }
+    }
+    /**
+     * Возвращает истину, если узел или один из его родительских узлов, которые требуется открыть, уже закрыт,
+     * или ключ узла уже записан в родительский узел.
+     * @param node узел плана
+     */
+    private boolean isRepeated(DocumentNode node) {
+        for(; states[node.getIndex()] != OPEN; node = node.getParentDocumentNode()) {
+            if(states[node.getIndex()] == CLOSED || hasKey(node.getParentDocumentNode(), node.getKey()))
+                return true;
+        }
+        return false;
+    }
+    /**
+     * Возвращает истину, если ключ уже записан в открытый узел.
+     * @param node узел плана
+     * @param key ключ
+     */
+    private boolean hasKey(DocumentNode node, String key) {
+        return states[node.getIndex()] == OPEN && !node.isArray() && keys.get(node.getIndex()).contains(key);
+    }
+    /**
+     * Преобразует сформированную часть документа в дерево объектов Document и создаёт курсор DocumentTreeCursor,
+     * объекты узлов которого - текущие объекты открытых и закрытых узлов.
+     */
+    private void toTreeCursor() {
+        closeTo(openNodes[0]);
+        writer.writeEndDocument();
+        writer.close();
+        treeDocument = new RawBsonDocument(buffer.getInternalBuffer(), 0, buffer.getPosition()).decode(documentCodec);
+        treeCursor = new DocumentTreeCursor(rootNode, treeDocument);
+        setDocuments(rootNode, treeDocument);
+    }
+
+    private void setDocuments(DocumentNode node, Object document) {
+        for(DocumentNode children : node.getChildrenNodes()) {
+            if(states[children.getIndex()] == NEW)
+                continue;
+            Object childrenDocument;
+            if(node.isArray()) {
+                List<?> list = (List<?>)document;
+                childrenDocument = list.isEmpty() ? null : list.get(list.size() - 1);
+            }
+            else {
+                childrenDocument = ((Document)document).get(children.getKey());
+            }
+            if(children.isArray() ? childrenDocument instanceof ArrayList : childrenDocument instanceof Document) {
+                treeCursor.setDocument(children, childrenDocument);
+                setDocuments(children, childrenDocument);
+            }
+        }
+    }
+    /**
+     * Закрывает открытые узлы до узла node.
+     * @param node узел плана
+     */
+    private void closeTo(DocumentNode node) {
+        while(openNodes[depth - 1] != node) {
+            DocumentNode top = openNodes[--depth];
+            if(top.isArray()) writer.writeEndArray();
+            else writer.writeEndDocument();
+            states[top.getIndex()] = CLOSED;
+        }
+    }
+
+    private void resetNode(DocumentNode node) {
+        if(states[node.getIndex()] != NEW) {
+            states[node.getIndex()] = NEW;
+            for(DocumentNode children : node.getChildrenNodes()) {
+                resetNode(children);
+            }
+        }
+    }
+
+    private void writeValue(Object value) {
+        if(value instanceof String) writer.writeString((String)value);
+        else if(value instanceof Double) writer.writeDouble((Double)value);
+        else if(value instanceof Boolean) writer.writeBoolean((Boolean)value);
+        else if(value instanceof Integer) writer.writeInt32((Integer)value);
+        else if(value instanceof Long) writer.writeInt64((Long)value);
+        else if(value instanceof Decimal128) writer.writeDecimal128((Decimal128)value);
+        else if(value instanceof Date) writer.writeDateTime(((Date)value).getTime());
+        else if(value instanceof ObjectId) writer.writeObjectId((ObjectId)value);
+        else {
+            encode(value, codecRegistry.get(value.getClass()));
+        }
+    }
+    /** Кодирует значение кодеком, полученным из реестра по классу значения, поэтому приведение типа безопасно. */
+    @SuppressWarnings("unchecked")
+    private <T> void encode(Object value, Encoder<T> encoder) {
+        encoder.encode(writer, (T)value, encoderContext);
+    }
+}
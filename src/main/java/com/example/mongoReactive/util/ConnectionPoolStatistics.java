@@ -0,0 +1,94 @@
+package com.example.mongoReactive.util;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClearedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import org.bson.Document;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Класс ConnectionPoolStatistics собирает статистику пулов соединений драйвера MongoDB по событиям
+ * ConnectionPoolListener: количество открытых и занятых соединений, ожидающих соединения запросов, а также
+ * счётчики выдачи соединений, отказов и очисток пула. Значения суммируются по всем серверам кластера.
+ *
+ * @author Морозов Валентин
+ */
+public class ConnectionPoolStatistics implements ConnectionPoolListener {
+    final private AtomicLong maxSize = new AtomicLong();
+    final private AtomicLong open = new AtomicLong();
+    final private AtomicLong inUse = new AtomicLong();
+    final private AtomicLong waiting = new AtomicLong();
+    final private AtomicLong created = new AtomicLong();
+    final private AtomicLong closed = new AtomicLong();
+    final private AtomicLong checkedOut = new AtomicLong();
+    final private AtomicLong checkOutFailed = new AtomicLong();
+    final private AtomicLong cleared = new AtomicLong();
+
+    @Override
+    public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+        maxSize.addAndGet(event.getSettings().getMaxSize());
+    }
+
+    @Override
+    public void connectionPoolCleared(ConnectionPoolClearedEvent event) {
+        cleared.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        created.incrementAndGet();
+        open.incrementAndGet();
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        closed.incrementAndGet();
+        open.decrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waiting.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        waiting.decrementAndGet();
+        checkedOut.incrementAndGet();
+        inUse.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waiting.decrementAndGet();
+        checkOutFailed.incrementAndGet();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        inUse.decrementAndGet();
+    }
+    /**
+     * Возвращает состояние пулов соединений: максимальный размер, открытые, занятые соединения, ожидающие запросы,
+     * количество созданных и закрытых соединений, выданных соединений, отказов в выдаче и очисток пула.
+     * @return объект состояния
+     */
+    public Document getStatistics() {
+        return new Document("maxSize", maxSize.get())
+                .append("open", open.get())
+                .append("inUse", inUse.get())
+                .append("waiting", waiting.get())
+                .append("created", created.get())
+                .append("closed", closed.get())
+                .append("checkedOut", checkedOut.get())
+                .append("checkOutFailed", checkOutFailed.get())
+                .append("cleared", cleared.get());
+    }
+}
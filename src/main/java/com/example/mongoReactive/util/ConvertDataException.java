@@ -1,10 +1,28 @@
 package com.example.mongoReactive.util;
 
 public class ConvertDataException extends Exception {
+    /** Путь к узлу, содержащему атрибут, null если ошибка не относится к атрибуту. */
+    private String path;
+    /** Ключ атрибута. */
+    private String key;
+
     public ConvertDataException(String message) {
         super(message);
     }
     public ConvertDataException(String message, Throwable cause) {
         super(message, cause);
     }
+    public ConvertDataException(String message, String path, String key, Throwable cause) {
+        super(message, cause);
+        this.path = path;
+        this.key = key;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getKey() {
+        return key;
+    }
 }
@@ -0,0 +1,51 @@
+package com.example.mongoReactive.util;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+
+/**
+ * Класс DateConverter преобразует дату и время, заданные последовательностью символов в формате pattern, в значение
+ * типа Date, сохраняемое в документе как дата BSON. Время без часового пояса относится к поясу zone. Допускаются
+ * пробельные символы в начале и в конце.
+ *
+ * @author Морозов Валентин
+ */
+public class DateConverter implements CharsConverter {
+    final private DateTimeFormatter formatter;
+    final private ZoneId zone;
+
+    /**
+     * @param pattern формат даты и времени, например dd.MM.yyyy HH:mm:ss
+     * @param zone часовой пояс
+     */
+    public DateConverter(String pattern, ZoneId zone) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+        this.zone = zone;
+    }
+    /**
+     * Возвращает функцию преобразования значения: в дату, если формат задан, иначе в строку.
+     * @param pattern формат даты и времени или пустая строка
+     * @param zone часовой пояс или пустая строка для пояса по умолчанию
+     * @return функция преобразования значения
+     */
+    public static ValueConverter of(String pattern, String zone) {
+        return pattern.isEmpty()
+                ? String::valueOf
+                : new DateConverter(pattern, zone.isEmpty() ? ZoneId.systemDefault() : ZoneId.of(zone));
+    }
+
+    @Override
+    public Object convert(CharSequence value) {
+        int end = value.length();
+        int start = 0;
+        while(start < end && Character.isWhitespace(value.charAt(start))) start++;
+        while(end > start && Character.isWhitespace(value.charAt(end - 1))) end--;
+        LocalDateTime dateTime = formatter.parse(start == 0 && end == value.length() ? value : value.subSequence(start, end),
+                LocalDateTime::from);
+        return Date.from(dateTime.atZone(zone).toInstant());
+    }
+}
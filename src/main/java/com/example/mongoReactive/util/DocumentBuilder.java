@@ -1,14 +1,27 @@
 package com.example.mongoReactive.util;
 
+import com.fasterxml.aalto.AsyncByteBufferFeeder;
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
 import lombok.*;
 import org.bson.Document;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.*;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
@@ -20,6 +33,14 @@ import static java.util.Objects.nonNull;
  */
 public class DocumentBuilder {
     final private static XmlMapper xmlMapper = new XmlMapper();
+    final private static XMLInputFactory xmlInputFactory = xmlMapper.getFactory().getXMLInputFactory();
+    final private static AsyncXMLInputFactory asyncXmlInputFactory = new InputFactoryImpl();
+    /** Метка порядка байтов UTF-8, асинхронный парсер её не пропускает. */
+    final private static byte[] UTF8_BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+    static {
+        asyncXmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        asyncXmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
 //
     @FunctionalInterface
     public interface ValueReceiver {
@@ -31,6 +52,18 @@ public class DocumentBuilder {
     public interface ValueConverter {
         Object convert(String value);
     }
+    /**
+     * Функция преобразования значения, принимающая последовательность символов. Используется для преобразования текста
+     * элементов XML без создания промежуточной строки.
+     */
+    @FunctionalInterface
+    public interface CharsConverter extends ValueConverter {
+        Object convert(CharSequence value);
+
+        default Object convert(String value) {
+            return convert((CharSequence)value);
+        }
+    }
     /**
      * Класс Context объединяет множества параметров в один объект, используется для минимизации количества передаваемы
      * параметров при вызове методов.
@@ -38,18 +71,28 @@ public class DocumentBuilder {
      */
     @Getter
     public static class Context  {
+        /** Начальная глубина стека пути. */
+        final private static int INITIAL_DEPTH = 16;
         /** Переменная для хранения имени обрабатываемого файла(объекта). */
         final private String fileName;
         /** Переменная для хранения объекта ресивера, может использоваться ресиверами для хранения данных
          * используемых/формируемых в поцессе обработки. */
         @Setter(AccessLevel.PACKAGE)
         private Object receiverObject;
-        /** Переменная для хранения ключа атрибута. */
+        /** Переменная для хранения ключа атрибута, null для элемента массива. */
         private String key;
+        /** Переменная для хранения индекса элемента массива, -1 для атрибута объекта. */
+        private int index = -1;
         /** Переменная для хранения значения атрибута. */
         private Object value;
-        /** Переменная для хранения текущего пути к атрибуту. */
-        final private Stack<String> path;
+        /** Переменные для хранения текущего пути к атрибуту: ключей и индексов элементов массивов. Строковое
+         * представление пути формируется только при обращении к методу getPath. */
+        @Getter(AccessLevel.NONE)
+        private String[] pathKeys = new String[INITIAL_DEPTH];
+        @Getter(AccessLevel.NONE)
+        private int[] pathIndexes = new int[INITIAL_DEPTH];
+        /** Переменная для хранения глубины текущего пути. */
+        private int pathDepth;
         /** Переменная для хранения объекта обработки исключений **/
         final private Predicate<Exception> onError;
         Context(Object receiverObject, String fileName) {
@@ -58,14 +101,29 @@ public class DocumentBuilder {
         Context(Object receiverObject, String fileName, Predicate<Exception> onError) {
             this.receiverObject = receiverObject;
             this.fileName = fileName;
-            this.path = new Stack<>();
             this.onError = onError;
         }
         public Context setKeyValue(String key, Object value) {
             this.key = key;
+            this.index = -1;
+            this.value = value;
+            return this;
+        }
+
+        public Context setIndexValue(int index, Object value) {
+            this.key = null;
+            this.index = index;
             this.value = value;
             return this;
         }
+        /**
+         * Возвращает ключ атрибута, для элемента массива - строковое представление индекса.
+         */
+        public String getKey() {
+            if(isNull(key) && index >= 0)
+                key = String.valueOf(index);
+            return key;
+        }
 
         public JsonNode getJsonValue() {
             return (value instanceof JsonNode) ? (JsonNode)value : null;
@@ -75,125 +133,301 @@ public class DocumentBuilder {
             return (value instanceof Document) ? (Document)value : null;
         }
 
-        public String push(String key) {
-            return path.push(key);
+        /**
+         * Возвращает истину, если значение является объектом: узел-объект JsonNode, Document или элемент XML,
+         * содержащий дочерние элементы или атрибуты.
+         */
+        public boolean isObjectValue() {
+            if(value instanceof JsonNode) return ((JsonNode)value).isObject();
+            return (value instanceof Document) || (value instanceof XMLStreamReader);
         }
 
-        public String pop() {
-            return path.pop();
+        /**
+         * Возвращает истину, если значение является массивом.
+         */
+        public boolean isArrayValue() {
+            if(value instanceof JsonNode) return ((JsonNode)value).isArray();
+            return value instanceof List;
+        }
+
+        public void push(String key) {
+            push(key, -1);
+        }
+        /**
+         * Помещает в путь текущий атрибут: ключ или индекс элемента массива.
+         */
+        public void pushCurrent() {
+            push(key, index);
+        }
+
+        public void pop() {
+            pathKeys[--pathDepth] = null;
+        }
+        /**
+         * Возвращает путь к текущему атрибуту, начиная с уровня from, элементы пути разделяются символом "\".
+         * @param from уровень, с которого начинается путь, 0 - корневой узел
+         * @return путь к атрибуту
+         */
+        public String getPath(int from) {
+            StringBuilder path = new StringBuilder();
+            for(int i = from; i < pathDepth; i++) {
+                if(i > from) path.append('\\');
+                if(nonNull(pathKeys[i])) path.append(pathKeys[i]);
+                else path.append(pathIndexes[i]);
+            }
+            return path.toString();
+        }
+
+        public String getPath() {
+            return getPath(0);
+        }
+
+        private void push(String key, int index) {
+            if(pathDepth == pathKeys.length) {
+                pathKeys = Arrays.copyOf(pathKeys, pathDepth * 2);
+                pathIndexes = Arrays.copyOf(pathIndexes, pathDepth * 2);
+            }
+            pathKeys[pathDepth] = key;
+            pathIndexes[pathDepth++] = index;
         }
     }
 
     /**
-     * Класс DocumentNode представляет узел формируемого дерева Document.
-     * Узел может содержать объект типа Document или
-     * ArarayList. Узел может формироваться как статически, задаётся при создании объекта, так и динамически,
-     * формируется в случае наличия атрибутов в дочерних узлах.
+     * Класс DocumentNode представляет узел плана формируемого дерева Document.
+     * Узел может содержать объект типа Document или ArrayList. План строится один раз и не изменяется при обработке,
+     * объекты узлов создаются динамически в курсоре DocumentCursor, в случае наличия атрибутов в дочерних узлах.
+     * Курсор передаётся ресиверам в качестве receiverObject набора параметров.
      *
      */
-    @AllArgsConstructor
     @Getter
     public static class DocumentNode  {
         /** Переменная для хранения ссылки на родительский документ. */
         final private DocumentNode parentDocumentNode;
         /** Переменная для хранения ключа узла. */
         final private String key;
-        /** Переменная для хранения узла документа. */
-        @Setter
-        private Object document;
         /** Переменная для хранения признака, что данный узел является массивом. */
         final private boolean isArray;
-        /**
-         * Добавляет элемент в узел, если узел является массивом. Если объект массива не существовал - то он создаётся.
-         * @param item добавляемый элемент
-         * @return индекс в массиве, добавленного элемента
-         */
-        public boolean addIsArray(Object item) {
-            if(isArray()) {
-                ArrayList<Object> array = isArray() ? (ArrayList<Object>) document : null;
-                if(isNull(array)) {
-                    array = new ArrayList<>();
-                    document = array;
-                }
-                if(array.isEmpty() || array.get(array.size() - 1) != item) {
-                    array.add(item);
-                }
-                return true;
-            }
-            return false;
+        /** Переменная для хранения индекса узла в курсоре. */
+        final private int index;
+        /** Переменная для хранения корневого узла плана. */
+        @Getter(AccessLevel.NONE)
+        final private DocumentNode rootNode;
+        /** Переменная для хранения количества узлов плана, используется только в корневом узле. */
+        @Getter(AccessLevel.NONE)
+        private int nodeCount;
+        /** Переменная для хранения дочерних узлов, заполняется при построении плана. */
+        @Getter(AccessLevel.NONE)
+        final private List<DocumentNode> childrenNodes = new ArrayList<>();
+
+        DocumentNode(DocumentNode parentDocumentNode, String key, boolean isArray) {
+            this.parentDocumentNode = parentDocumentNode;
+            this.key = key;
+            this.isArray = isArray;
+            this.rootNode = isNull(parentDocumentNode) ? this : parentDocumentNode.rootNode;
+            this.index = rootNode.nodeCount++;
+            if(nonNull(parentDocumentNode))
+                parentDocumentNode.childrenNodes.add(this);
         }
 
         boolean isArray() {
             return isArray;
         }
+
+        int getNodeCount() {
+            return rootNode.nodeCount;
+        }
+
+        List<DocumentNode> getChildrenNodes() {
+            return childrenNodes;
+        }
         /**
-         * Выполняет преобразование значения, передаваемого в ctx и добавляет его в узел.
+         * Выполняет преобразование значения, передаваемого в ctx и добавляет его в узел курсора ctx.
          * @param key ключ, добавляемого значения
          * @param converter функция преобразования значения
          * @param ctx набор параметров
          * @return истина, если значение добавлено
          */
         public boolean append(String key, ValueConverter converter, Context ctx) throws ConvertDataException {
-            return append(key, (ctx.getValue() instanceof JsonNode) ?
+            return append((DocumentCursor)ctx.getReceiverObject(), key, (ctx.getValue() instanceof JsonNode) ?
                     convertValueJsonNode(converter, ctx) : convertValue(converter, ctx));
         }
         /**
-         * Добавляет атрибут в узел. .
+         * Добавляет атрибут в узел.
+         * @param cursor курсор формируемого документа
          * @param key ключ
          * @param value значение
          * @return истина, если значение добавлено
          */
-        public boolean append(String key, Object value) {
-            boolean rc = false;
+        public boolean append(DocumentCursor cursor, String key, Object value) throws ConvertDataException {
             if(nonNull(value)) {
-                rc = createDocumentNode(null);
-                if (rc) {
-                    if(isArray())
-                        ((ArrayList)document).add(value);
-                    else
-                        ((Document)document).append(key, value);
-                }
+                cursor.append(this, key, value);
+                return true;
             }
-            return rc;
+            return false;
         }
         /**
-         * Проверяет наличие объекта узла, d случае отсутствия создаёт его и добавляет в него объект дочернего узела.
-         * Вызывает цепочку изменений в дереве документов.
-         * @param children дочерний узел, обрабатывающи добавление атрибута
+         * Создаёт новый объект узла, например, очередной элемент массива. Объекты дочерних узлов сбрасываются.
+         * @param cursor курсор формируемого документа
          * @return истина, если узел создан без ошибок
          */
-        public boolean createDocumentNode(DocumentNode children) {
+        public boolean newNode(DocumentCursor cursor) throws ConvertDataException {
+            cursor.newNode(this);
+            return true;
+        }
+    }
+    /**
+     * Класс DocumentCursor хранит состояние документа, формируемого по плану DocumentNode при одной обработке.
+     * Объекты узлов создаются динамически, при добавлении в узел первого атрибута.
+     *
+     */
+    public static abstract class DocumentCursor {
+        /**
+         * Добавляет атрибут в узел, при необходимости создавая узел и его родительские узлы.
+         * @param node узел плана
+         * @param key ключ
+         * @param value значение
+         */
+        protected abstract void append(DocumentNode node, String key, Object value) throws ConvertDataException;
+        /**
+         * Создаёт новый объект узла.
+         * @param node узел плана
+         */
+        protected abstract void newNode(DocumentNode node) throws ConvertDataException;
+    }
+    /**
+     * Класс DocumentTreeCursor формирует документ в виде дерева объектов Document и ArrayList.
+     *
+     */
+    public static class DocumentTreeCursor extends DocumentCursor {
+        /** Переменная для хранения объектов узлов по индексу узла плана. */
+        final private Object[] documents;
+
+        public DocumentTreeCursor(DocumentNode rootNode, Document rootDocument) {
+            this.documents = new Object[rootNode.getNodeCount()];
+            this.documents[rootNode.getIndex()] = rootDocument;
+        }
+
+        @Override
+        protected void append(DocumentNode node, String key, Object value) {
+            Object document = getDocument(node);
+            if(node.isArray())
+                ((ArrayList<Object>)document).add(value);
+            else
+                ((Document)document).append(key, value);
+        }
+
+        @Override
+        protected void newNode(DocumentNode node) {
+            clearChildren(node);
+            newDocument(node);
+        }
+        /**
+         * Возвращает объект узла, в случае отсутствия создаёт его и добавляет в родительский узел.
+         * Вызывает цепочку создания узлов в дереве документов.
+         * @param node узел плана
+         * @return объект узла
+         */
+        public Object getDocument(DocumentNode node) {
+            Object document = documents[node.getIndex()];
             if(isNull(document)) {
-                document = isArray() ? new ArrayList<>() : new Document();
+                document = newDocument(node);
             }
-            if(nonNull(children)) {
-                if(!addIsArray(children.getDocument()))
-                    ((Document)document).append(children.getKey(), children.getDocument());
+            return document;
+        }
+
+        /**
+         * Задаёт объект узла, сформированный вне курсора.
+         * @param node узел плана
+         * @param document объект Document или ArrayList
+         */
+        void setDocument(DocumentNode node, Object document) {
+            documents[node.getIndex()] = document;
+        }
+
+        private Object newDocument(DocumentNode node) {
+            Object document = node.isArray() ? new ArrayList<>() : new Document();
+            documents[node.getIndex()] = document;
+            DocumentNode parentNode = node.getParentDocumentNode();
+            if(nonNull(parentNode)) {
+                Object parentDocument = getDocument(parentNode);
+                if(parentNode.isArray())
+                    ((ArrayList<Object>)parentDocument).add(document);
+                else
+                    ((Document)parentDocument).append(node.getKey(), document);
             }
-            boolean rc = true;
-            if(nonNull(parentDocumentNode))
-                rc = rc & parentDocumentNode.createDocumentNode(this);
-            return rc;
+            return document;
         }
 
-        public boolean newNode() {
-            document = isArray() ? new ArrayList<>() : new Document();
-            return parentDocumentNode.createDocumentNode(this);
+        private void clearChildren(DocumentNode node) {
+            for(DocumentNode children : node.getChildrenNodes()) {
+                if(nonNull(documents[children.getIndex()])) {
+                    documents[children.getIndex()] = null;
+                    clearChildren(children);
+                }
+            }
         }
-        //
     }
     /**
      * Набор методов создания узла документов.
      * @return созданный объект DocumentNode
      */
-    public static DocumentNode createDocumentNode(DocumentNode parentDocumentNode, String key, Document document) {
-        return new DocumentNode(parentDocumentNode, key, document, false);
-    }
     public static DocumentNode createDocumentNode(DocumentNode parentDocumentNode, String key) {
-        return new DocumentNode(parentDocumentNode, key, null, false);
+        return new DocumentNode(parentDocumentNode, key, false);
     }
     public static DocumentNode createDocumentNode(DocumentNode parentDocumentNode, String key,  boolean isArray) {
-        return new DocumentNode(parentDocumentNode, key, null, isArray);
+        return new DocumentNode(parentDocumentNode, key, isArray);
+    }
+    /**
+     * Класс KeyReceiver выбирает ресивер атрибута по ключу с помощью таблицы, заполняемой при построении плана.
+     * Для ключей, отсутствующих в таблице, вызывается ресивер по умолчанию.
+     *
+     */
+    public static class KeyReceiver implements ValueReceiver {
+        /** Переменная для хранения таблицы ресиверов. */
+        final private Map<String, ValueReceiver> receivers = new HashMap<>();
+        /** Переменная для хранения ресивера по умолчанию. */
+        final private ValueReceiver defaultReceiver;
+
+        public KeyReceiver(ValueReceiver defaultReceiver) {
+            this.defaultReceiver = defaultReceiver;
+        }
+        /**
+         * Добавляет ресивер для набора ключей.
+         * @param receiver ресивер атрибута
+         * @param keys ключи атрибута
+         * @return текущий объект
+         */
+        public KeyReceiver on(ValueReceiver receiver, String... keys) {
+            for(String key : keys) {
+                receivers.put(key, receiver);
+            }
+            return this;
+        }
+
+        @Override
+        public ValueReceiver receive(Context ctx) throws ConvertDataException {
+            return receivers.getOrDefault(ctx.getKey(), defaultReceiver).receive(ctx);
+        }
+    }
+    /**
+     * Создаёт ресивер конечного атрибута, добавляющий преобразованное значение в узел.
+     * @param documentNode узел документа
+     * @param converter функция преобразования значения
+     * @return объект, принимающий атрибут
+     */
+    public static ValueReceiver valueReceiver(final DocumentNode documentNode, final ValueConverter converter) {
+        return (Context ctx) -> {
+            documentNode.append(ctx.getKey(), converter, ctx);
+            return null;
+        };
+    }
+    /**
+     * Создаёт ресивер атрибута-объекта, передающий обработку дочерних атрибутов ресиверу receiver.
+     * @param receiver объект, принимающий дочерние атрибуты
+     * @return объект, принимающий атрибут
+     */
+    public static ValueReceiver nodeReceiver(final ValueReceiver receiver) {
+        return (Context ctx) -> testAndGetReceiver(receiver, ctx);
     }
     /**
      * Преобразует документ в формате XML в формат JsonNode. В случае ошибки преобразования пишет в лог сообщение об ошибке
@@ -203,6 +437,19 @@ public class DocumentBuilder {
     public static JsonNode XML2Node(String documentXML) throws IOException {
         return xmlMapper.readTree(documentXML);
     }
+    /**
+     * Создаёт потоковый парсер StAX для документа в формате XML. Дерево документа в памяти не строится.
+     * @param documentXML документ в формате XML
+     * @return объект чтения событий XML
+     */
+    public static XMLStreamReader XML2Reader(String documentXML) throws IOException {
+        try {
+            return xmlInputFactory.createXMLStreamReader(new StringReader(documentXML));
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
     /**
      * Запускает процесс обработки дерева JsonNode. Для каждого элемента вызывается метод receive интерфейса ValueReceiver.
      * Метод receive возвращает null или новый объект, реализующий интерфейс ValueReceiver, в котором реализована
@@ -220,7 +467,7 @@ public class DocumentBuilder {
             throws ConvertDataException {
         if(nonNull(rootNode)) {
             Context ctx = new Context(receiverObject, documentName, onError);
-            processingValueJsonNode(receiver, ctx.setKeyValue("", rootNode));
+            new TreeWalker().walk(rootNode, receiver, ctx);
             return ctx.getReceiverObject();
         }
         return null;
@@ -229,36 +476,381 @@ public class DocumentBuilder {
             throws ConvertDataException {
         if(nonNull(rootNode)) {
             Context ctx = new Context(receiverObject, documentName);
-            processingValueJsonNode(receiver, ctx.setKeyValue("", rootNode));
+            new TreeWalker().walk(rootNode, receiver, ctx);
             return ctx.getReceiverObject();
         }
         return null;
     }
-    //
     /**
-     * Перебирает элементы дерева JsonNode. Для каждого элемента вызывается метод receive интерфейса ValueReceiver.
-     * Метод receive возвращает null или новый объект, реализующий интерфейс ValueReceiver, в котором реализована
-     * приёмка атрибута. null означает, что дальнейшая обработка атрибута не требуется.
-     * @param receiver объект, принимающий элементы дерева документа
-     * @param ctx набор параметров
+     * Запускает потоковую обработку документа XML. Для каждого элемента вызывается метод receive интерфейса
+     * ValueReceiver, так же как при обработке дерева JsonNode: корневой элемент передаётся с ключом "", атрибуты и
+     * дочерние элементы - с их локальными именами. Значением конечного элемента является его текст (CharSequence,
+     * действительный только во время вызова receive), значением элемента, содержащего дочерние элементы или атрибуты,
+     * - сам объект XMLStreamReader.
+     * Повторяющиеся элементы передаются по одному, каждый как отдельный объект.
+     * @param reader объект чтения событий XML
+     * @param documentName имя документа
+     * @param receiver объект, принимающий элементы документа
+     * @param receiverObject необязательный параметр, передаётся в наборе параметров при вызове метода receive интерфейса
+     *                       ValueReceiver.
+     * @return объект, переданный в качестве параметра receiverObject
      */
-    private static void processingValueJsonNode(ValueReceiver receiver, Context ctx) throws ConvertDataException  {
-        if(nonNull(receiver)) {
-            String keyValue = ctx.getKey();
-            JsonNode value = (JsonNode)ctx.getValue();
-            ValueReceiver valueReceiver = receiver.receive(ctx.setKeyValue(keyValue, value));
-            ctx.push(keyValue);
-            if (value.isObject()) {
-                for (Iterator<Map.Entry<String,JsonNode>> fields = value.fields(); fields.hasNext(); ) {
-                    Map.Entry<String, JsonNode> field = fields.next();
-                    processingValueJsonNode(valueReceiver, ctx.setKeyValue(field.getKey(), field.getValue()));
+    public static Object forEachNode(XMLStreamReader reader, String documentName, ValueReceiver receiver, Object receiverObject)
+            throws ConvertDataException, IOException {
+        if(nonNull(reader)) {
+            Context ctx = new Context(receiverObject, documentName);
+            XmlNodeProcessor processor = new XmlNodeProcessor(receiver, ctx);
+            try {
+                while(!processor.isCompleted() && reader.hasNext()) {
+                    processor.process(reader, reader.next());
                 }
-            } else if (value.isArray()) {
-                for(int i = 0; i < value.size(); i++) {
-                    processingValueJsonNode(valueReceiver, ctx.setKeyValue(String.valueOf(i), value.get(i)));
+                reader.close();
+            }
+            catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return ctx.getReceiverObject();
+        }
+        return null;
+    }
+    /**
+     * Запускает неблокирующую потоковую обработку документа XML, поступающего частями. Каждая часть передаётся
+     * асинхронному парсеру сразу после получения и освобождается после разбора. Элементы передаются ресиверам так же,
+     * как при обработке XMLStreamReader.
+     * @param documentXML части документа в формате XML
+     * @param maxSize максимальный размер документа в байтах, при превышении генерируется DataBufferLimitException
+     * @param documentName имя документа
+     * @param receiver объект, принимающий элементы документа
+     * @param receiverObject необязательный параметр, передаётся в наборе параметров при вызове метода receive интерфейса
+     *                       ValueReceiver.
+     * @return объект, переданный в качестве параметра receiverObject
+     */
+    public static Mono<Object> forEachNode(Flux<DataBuffer> documentXML, long maxSize, String documentName,
+                                           ValueReceiver receiver, Object receiverObject) {
+        return Flux.defer(() -> new NodeParser(maxSize, documentName, receiver, receiverObject).parse(documentXML))
+                .next();
+    }
+    /**
+     * Запускает неблокирующую потоковую обработку документа XML, каждый дочерний элемент корневого элемента которого
+     * обрабатывается как отдельный документ: ресиверу передаётся корневой элемент с ключом "" и этот дочерний элемент.
+     * Результат обработки элемента передаётся сразу после его закрытия. Ошибка преобразования элемента не прерывает
+     * обработку остальных элементов и возвращается в результате.
+     * @param documentXML части документа в формате XML
+     * @param maxSize максимальный размер документа в байтах, при превышении генерируется DataBufferLimitException
+     * @param documentName имя документа
+     * @param receiver объект, принимающий элементы документа
+     * @param receiverObjectSupplier функция, создающая объект receiverObject для каждого дочернего элемента
+     * @return результаты обработки дочерних элементов в порядке следования
+     */
+    public static Flux<NodeResult> forEachChildNode(Flux<DataBuffer> documentXML, long maxSize, String documentName,
+                                                    ValueReceiver receiver, Supplier<Object> receiverObjectSupplier) {
+        return Flux.defer(() ->
+                new ChildNodesParser(maxSize, documentName, receiver, receiverObjectSupplier).parse(documentXML));
+    }
+    /**
+     * Класс NodeResult содержит результат обработки дочернего элемента документа.
+     *
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class NodeResult {
+        /** Переменная для хранения порядкового номера элемента. */
+        final private long index;
+        /** Переменная для хранения объекта ресивера, null в случае ошибки. */
+        final private Object receiverObject;
+        /** Переменная для хранения ошибки преобразования элемента. */
+        final private Exception error;
+    }
+    /**
+     * Класс AsyncXmlParser передаёт части документа асинхронному парсеру и обрабатывает доступные события после
+     * получения каждой части. Контролирует размер документа и пропускает метку порядка байтов UTF-8, которую
+     * асинхронный парсер не принимает.
+     *
+     */
+    private static abstract class AsyncXmlParser<T> {
+        final protected AsyncXMLStreamReader<AsyncByteBufferFeeder> reader = asyncXmlInputFactory.createAsyncForByteBuffer();
+        final protected String documentName;
+        final private long maxSize;
+        private long size;
+        private int bomIndex;
+
+        AsyncXmlParser(long maxSize, String documentName) {
+            this.maxSize = maxSize;
+            this.documentName = documentName;
+        }
+        /**
+         * Обрабатывает события, доступные без получения новых данных.
+         * @param output список, в который добавляются результаты обработки
+         */
+        abstract protected void processEvents(List<T> output) throws XMLStreamException, ConvertDataException;
+
+        abstract protected boolean isCompleted();
+
+        Flux<T> parse(Flux<DataBuffer> documentXML) {
+            return documentXML
+                    .concatMap(buffer -> {
+                        List<T> output = new ArrayList<>();
+                        try {
+                            size += buffer.readableByteCount();
+                            if(size > maxSize)
+                                return Flux.error(new DataBufferLimitException("Exceeded limit on max bytes to buffer : " + maxSize));
+                            if(!isCompleted()) {
+                                skipBom(buffer);
+                                reader.getInputFeeder().feedInput(buffer.asByteBuffer());
+                                processEvents(output);
+                            }
+                        }
+                        catch (XMLStreamException e) {
+                            return Flux.error(new IOException(e.getMessage(), e));
+                        }
+                        catch (ConvertDataException e) {
+                            return Flux.error(e);
+                        }
+                        finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                        return Flux.fromIterable(output);
+                    })
+                    .concatWith(Flux.defer(() -> {
+                        List<T> output = new ArrayList<>();
+                        try {
+                            if(!isCompleted()) {
+                                reader.getInputFeeder().endOfInput();
+                                processEvents(output);
+                            }
+                            reader.close();
+                        }
+                        catch (XMLStreamException e) {
+                            return Flux.error(new IOException(e.getMessage(), e));
+                        }
+                        catch (ConvertDataException e) {
+                            return Flux.error(e);
+                        }
+                        if(!isCompleted())
+                            return Flux.error(new IOException("Unexpected end of document " + documentName));
+                        return Flux.fromIterable(output);
+                    }))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        }
+
+        private void skipBom(DataBuffer buffer) {
+            while(bomIndex < UTF8_BOM.length && buffer.readableByteCount() > 0) {
+                if(buffer.getByte(buffer.readPosition()) == UTF8_BOM[bomIndex++])
+                    buffer.readPosition(buffer.readPosition() + 1);
+                else
+                    bomIndex = UTF8_BOM.length;
+            }
+        }
+        /**
+         * Возвращает следующее событие парсера или EVENT_INCOMPLETE, если для него недостаточно данных.
+         */
+        protected int nextEvent() throws XMLStreamException {
+            int event = reader.next();
+            return event == XMLStreamReader.END_DOCUMENT ? AsyncXMLStreamReader.EVENT_INCOMPLETE : event;
+        }
+    }
+    /**
+     * Класс NodeParser обрабатывает документ целиком и возвращает объект ресивера после закрытия корневого элемента.
+     *
+     */
+    private static class NodeParser extends AsyncXmlParser<Object> {
+        final private Context ctx;
+        final private XmlNodeProcessor processor;
+
+        NodeParser(long maxSize, String documentName, ValueReceiver receiver, Object receiverObject) {
+            super(maxSize, documentName);
+            this.ctx = new Context(receiverObject, documentName);
+            this.processor = new XmlNodeProcessor(receiver, ctx);
+        }
+
+        @Override
+        protected void processEvents(List<Object> output) throws XMLStreamException, ConvertDataException {
+            int event;
+            while(!processor.isCompleted() && (event = nextEvent()) != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+                processor.process(reader, event);
+                if(processor.isCompleted())
+                    output.add(ctx.getReceiverObject());
+            }
+        }
+
+        @Override
+        protected boolean isCompleted() {
+            return processor.isCompleted();
+        }
+    }
+    /**
+     * Класс ChildNodesParser обрабатывает каждый дочерний элемент корневого элемента как отдельный документ.
+     *
+     */
+    private static class ChildNodesParser extends AsyncXmlParser<NodeResult> {
+        final private ValueReceiver receiver;
+        final private Supplier<Object> receiverObjectSupplier;
+        private Context ctx;
+        private XmlNodeProcessor processor;
+        private ConvertDataException error;
+        private long index;
+        private int depth;
+        private boolean completed;
+
+        ChildNodesParser(long maxSize, String documentName, ValueReceiver receiver, Supplier<Object> receiverObjectSupplier) {
+            super(maxSize, documentName);
+            this.receiver = receiver;
+            this.receiverObjectSupplier = receiverObjectSupplier;
+        }
+
+        @Override
+        protected void processEvents(List<NodeResult> output) throws XMLStreamException {
+            int event;
+            while(!completed && (event = nextEvent()) != AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+                if(event == XMLStreamReader.START_ELEMENT && ++depth == 2) {
+                    ctx = new Context(receiverObjectSupplier.get(), documentName);
+                    processor = new XmlNodeProcessor(receiver, ctx);
+                    error = null;
+                    try {
+                        processor.startRoot();
+                    }
+                    catch (ConvertDataException e) {
+                        error = e;
+                    }
+                }
+                if(depth >= 2 && isNull(error)) {
+                    try {
+                        processor.process(reader, event);
+                        if(event == XMLStreamReader.END_ELEMENT && depth == 2)
+                            processor.endRoot();
+                    }
+                    catch (ConvertDataException e) {
+                        error = e;
+                    }
+                }
+                if(event == XMLStreamReader.END_ELEMENT) {
+                    if(--depth == 1)
+                        output.add(new NodeResult(index++, isNull(error) ? ctx.getReceiverObject() : null, error));
+                    else if(depth == 0)
+                        completed = true;
+                }
+            }
+        }
+
+        @Override
+        protected boolean isCompleted() {
+            return completed;
+        }
+    }
+    /**
+     * Класс XmlNodeProcessor преобразует события XML в вызовы ресиверов. Обработчик не читает события сам, поэтому
+     * может использоваться как с XMLStreamReader, так и с асинхронным парсером, получающим документ частями.
+     * Тип элемента определяется по первому следующему событию: закрытие элемента означает конечный атрибут, открытие
+     * дочернего элемента - объект. Для каждого открытого элемента хранится ресивер, ключ и состояние.
+     *
+     */
+    public static class XmlNodeProcessor {
+        /** Элемент и его дочерние элементы не обрабатываются. */
+        final private static byte SKIP = 0;
+        /** Тип элемента ещё не определён, накапливается текст. */
+        final private static byte PENDING = 1;
+        /** Элемент является объектом, ресивер элемента принимает дочерние элементы. */
+        final private static byte OBJECT = 2;
+
+        final private Context ctx;
+        final private StringBuilder text = new StringBuilder();
+        private ValueReceiver[] receivers = new ValueReceiver[16];
+        private String[] keys = new String[16];
+        private byte[] states = new byte[16];
+        private int depth;
+        private boolean completed;
+
+        public XmlNodeProcessor(ValueReceiver receiver, Context ctx) {
+            this.ctx = ctx;
+            this.receivers[0] = receiver;
+            this.states[0] = isNull(receiver) ? SKIP : OBJECT;
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+        /**
+         * Открывает корневой элемент с ключом "" без чтения события. Используется, когда дочерний элемент документа
+         * обрабатывается как отдельный документ.
+         */
+        public void startRoot() throws ConvertDataException {
+            startElement(null);
+        }
+        /**
+         * Закрывает корневой элемент, открытый методом startRoot.
+         */
+        public void endRoot() throws ConvertDataException {
+            endElement();
+        }
+        /**
+         * Обрабатывает текущее событие объекта чтения.
+         * @param reader объект чтения, находящийся на событии event
+         * @param event тип события
+         */
+        public void process(XMLStreamReader reader, int event) throws ConvertDataException {
+            switch(event) {
+                case XMLStreamReader.START_ELEMENT: startElement(reader); break;
+                case XMLStreamReader.END_ELEMENT: endElement(); break;
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.CDATA:
+                case XMLStreamReader.SPACE:
+                    if(states[depth] == PENDING)
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+            }
+        }
+
+        private void startElement(XMLStreamReader reader) throws ConvertDataException {
+            if(states[depth] == PENDING) {
+                startObject(reader);
+            }
+            byte parentState = states[depth];
+            ValueReceiver receiver = receivers[depth];
+            if(++depth == receivers.length) {
+                receivers = Arrays.copyOf(receivers, depth * 2);
+                keys = Arrays.copyOf(keys, depth * 2);
+                states = Arrays.copyOf(states, depth * 2);
+            }
+            keys[depth] = depth == 1 ? "" : reader.getLocalName();
+            receivers[depth] = receiver;
+            states[depth] = parentState == OBJECT ? PENDING : SKIP;
+            if(states[depth] == PENDING) {
+                text.setLength(0);
+                int attributeCount = isNull(reader) ? 0 : reader.getAttributeCount();
+                if(attributeCount > 0) {
+                    startObject(reader);
+                    for(int i = 0; i < attributeCount && states[depth] == OBJECT; i++) {
+                        receivers[depth].receive(
+                                ctx.setKeyValue(reader.getAttributeLocalName(i), reader.getAttributeValue(i)));
+                    }
                 }
             }
-            ctx.pop();
+        }
+
+        private void startObject(XMLStreamReader reader) throws ConvertDataException {
+            ValueReceiver receiver = receivers[depth].receive(ctx.setKeyValue(keys[depth], reader));
+            if(isNull(receiver)) {
+                states[depth] = SKIP;
+            }
+            else {
+                receivers[depth] = receiver;
+                states[depth] = OBJECT;
+                ctx.push(keys[depth]);
+            }
+        }
+
+        private void endElement() throws ConvertDataException {
+            if(states[depth] == PENDING) {
+                receivers[depth].receive(ctx.setKeyValue(keys[depth], text));
+            }
+            else if(states[depth] == OBJECT) {
+                ctx.pop();
+            }
+            receivers[depth] = null;
+            if(--depth == 0) {
+                completed = true;
+            }
         }
     }
     /**
@@ -287,37 +879,6 @@ public class DocumentBuilder {
         return  (value instanceof Document) ? new Document() : (
                 (value instanceof ArrayList) ? new ArrayList<>() : value);
     }
-    /**
-     * Добавляет объект в целевой объект Document или ArrayList, помещает в стек пути добавленный объект.
-     * @param node добавляемый узел/объект
-     * @param target целевой объект
-     * @param key ключ
-     * @param pathInTree путь в дереве до объекта
-     * @return истина, если узел помещен стек pathInTree
-     */
-    public static boolean addNode(Object node, Object target, String key, Stack<Object> pathInTree) {
-        boolean rc = true;
-        if(target instanceof Document) ((Document)target).append(key, node);
-        else if(target instanceof ArrayList)  ((ArrayList)target).add(node);
-        else rc = false;
-        if(node instanceof Document || node instanceof ArrayList) {
-            pathInTree.push(node);
-        }
-        return rc;
-    }
-    /**
-     * Синхронизирует стек пути в документе со стеком ключей, возвращает соответствующий пути объект из стека .
-     * @param pathDocs путь в документе
-     * @param pathKeys путь ключей
-     * @return текущий узел из стека параметра pathDocs
-     */
-    public static Object getTarget(Stack<Object> pathDocs, Stack<String> pathKeys)
-    {
-        while(pathDocs.size() > pathKeys.size()) {
-            pathDocs.pop();
-        }
-        return pathDocs.peek();
-    }
     /**
      * Запускает процесс обработки дерева Document. Для каждого элемента вызывается метод receive интерфейса ValueReceiver.
      * Метод receive возвращает null или новый объект, реализующий интерфейс ValueReceiver, в котором реализована
@@ -333,34 +894,111 @@ public class DocumentBuilder {
             throws ConvertDataException {
         if(nonNull(rootNode)) {
             Context ctx = new Context(receiverObject, documentName);
-            processingValue(receiver, ctx.setKeyValue("", rootNode));
+            new TreeWalker().walk(rootNode, receiver, ctx);
             return ctx.getReceiverObject();
         }
         return null;
     }
     /**
-     * Перебирает элементы дерева Document. Для каждого элемента вызывается метод receive интерфейса ValueReceiver.
-     * Метод receive возвращает null или новый объект, реализующий интерфейс ValueReceiver, в котором реализована
-     * приёмка атрибута. null означает, что дальнейшая обработка атрибута не требуется.
-     * @param receiver объект, принимающий элементы дерева документа
-     * @param ctx набор параметров
+     * Класс TreeWalker перебирает элементы дерева JsonNode или Document без рекурсии, используя явный стек фреймов.
+     * Для каждого элемента вызывается метод receive интерфейса ValueReceiver. Метод receive возвращает null или новый
+     * объект, реализующий интерфейс ValueReceiver, в котором реализована приёмка атрибута. null означает, что дальнейшая
+     * обработка атрибута не требуется. Индексы элементов массивов хранятся как int, строки создаются только по запросу
+     * ресивера, поэтому обход не создаёт объектов на каждый элемент дерева.
      */
-    private static void processingValue(ValueReceiver receiver, Context ctx) throws ConvertDataException {
-        if(nonNull(receiver)) {
-            String keyValue = ctx.getKey();
-            Object value = ctx.getValue();
-            ValueReceiver valueReceiver = receiver.receive(ctx.setKeyValue(keyValue, value));
-            ctx.push(keyValue);
-            if (value instanceof Document) {
-                for (Map.Entry<String,Object> node : ((Document) value).entrySet()) {
-                    processingValue(valueReceiver, ctx.setKeyValue(node.getKey(), node.getValue()));
+    private static class TreeWalker {
+        /** Начальная глубина стека фреймов. */
+        final private static int INITIAL_DEPTH = 16;
+        /** Переменные для хранения фреймов: узла, итератора атрибутов (null для массивов с доступом по индексу),
+         * индекса следующего элемента массива, размера массива и ресивера узла. */
+        private Object[] nodes = new Object[INITIAL_DEPTH];
+        private Iterator<?>[] iterators = new Iterator<?>[INITIAL_DEPTH];
+        private int[] indexes = new int[INITIAL_DEPTH];
+        private int[] sizes = new int[INITIAL_DEPTH];
+        private ValueReceiver[] receivers = new ValueReceiver[INITIAL_DEPTH];
+        private int depth;
+
+        void walk(Object rootNode, ValueReceiver receiver, Context ctx) throws ConvertDataException {
+            if(isNull(receiver))
+                return;
+            enter(rootNode, receiver.receive(ctx.setKeyValue("", rootNode)), ctx);
+            while(depth > 0) {
+                int top = depth - 1;
+                Object node = nodes[top];
+                Iterator<?> iterator = iterators[top];
+                Object value;
+                if(nonNull(iterator)) {
+                    if(!iterator.hasNext()) {
+                        leave(ctx);
+                        continue;
+                    }
+                    Object item = iterator.next();
+                    if(item instanceof Map.Entry) {
+                        Map.Entry<String, ?> field = (Map.Entry<String, ?>)item;
+                        value = field.getValue();
+                        ctx.setKeyValue(field.getKey(), value);
+                    }
+                    else {
+                        value = item;
+                        ctx.setIndexValue(indexes[top]++, value);
+                    }
+                }
+                else {
+                    if(indexes[top] >= sizes[top]) {
+                        leave(ctx);
+                        continue;
+                    }
+                    int index = indexes[top]++;
+                    value = (node instanceof JsonNode) ? ((JsonNode)node).get(index) : ((List<?>)node).get(index);
+                    ctx.setIndexValue(index, value);
                 }
-            } else if (value instanceof List) {
-                int i = 0;
-                for(Object item: (List<Object>) value) {
-                    processingValue(valueReceiver, ctx.setKeyValue(String.valueOf(i++), item));
+                enter(value, receivers[top].receive(ctx), ctx);
+            }
+        }
+        /**
+         * Помещает в стек фрейм узла, если узел является объектом или массивом и для него определён ресивер.
+         */
+        private void enter(Object node, ValueReceiver receiver, Context ctx) {
+            if(isNull(receiver))
+                return;
+            Iterator<?> iterator;
+            int size = 0;
+            if(node instanceof JsonNode) {
+                JsonNode jsonNode = (JsonNode)node;
+                if(jsonNode.isObject()) iterator = jsonNode.fields();
+                else if(jsonNode.isArray()) {
+                    iterator = null;
+                    size = jsonNode.size();
                 }
+                else return;
             }
+            else if(node instanceof Document) iterator = ((Document)node).entrySet().iterator();
+            else if(node instanceof List) {
+                List<?> list = (List<?>)node;
+                iterator = (list instanceof RandomAccess) ? null : list.iterator();
+                size = list.size();
+            }
+            else return;
+            if(depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                iterators = Arrays.copyOf(iterators, depth * 2);
+                indexes = Arrays.copyOf(indexes, depth * 2);
+                sizes = Arrays.copyOf(sizes, depth * 2);
+                receivers = Arrays.copyOf(receivers, depth * 2);
+            }
+            ctx.pushCurrent();
+            nodes[depth] = node;
+            iterators[depth] = iterator;
+            indexes[depth] = 0;
+            sizes[depth] = size;
+            receivers[depth++] = receiver;
+        }
+
+        private void leave(Context ctx) {
+            depth--;
+            nodes[depth] = null;
+            iterators[depth] = null;
+            receivers[depth] = null;
             ctx.pop();
         }
     }
@@ -377,13 +1015,15 @@ public class DocumentBuilder {
                 value = converter.convert(ctx.getJsonValue().asText());
             }
             catch (Exception e) {
-                ConvertDataException exception = new ConvertDataException(buildMsgInfo("Convert:", ctx), e);
+                ConvertDataException exception = new ConvertDataException(buildMsgInfo("Convert:", ctx),
+                        buildPath(ctx), ctx.getKey(), e);
                 if(!ctx.onError.test(exception))
                     throw exception;
             }
         }
         else {
-            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Type is not an value node:", ctx));
+            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Type is not an value node:", ctx),
+                    buildPath(ctx), ctx.getKey(), null);
             if(!ctx.onError.test(exception))
                 throw exception;
         }
@@ -398,11 +1038,24 @@ public class DocumentBuilder {
     public static Object convertValue(ValueConverter converter, Context ctx) throws ConvertDataException {
         Object value = null;
         Object valueNode = ctx.getValue();
+        if(valueNode instanceof XMLStreamReader) {
+            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Type is not an value node:", ctx),
+                    buildPath(ctx), ctx.getKey(), null);
+            if(!ctx.onError.test(exception))
+                throw exception;
+            return null;
+        }
         try {
-            value = nonNull(converter) && valueNode instanceof String ? converter.convert((String)valueNode) : valueNode;
+            if(valueNode instanceof CharSequence) {
+                if(converter instanceof CharsConverter) value = ((CharsConverter)converter).convert((CharSequence)valueNode);
+                else if(nonNull(converter)) value = converter.convert(valueNode.toString());
+                else value = valueNode.toString();
+            }
+            else value = valueNode;
         }
         catch (Exception e) {
-            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Convert:", ctx), e);
+            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Convert:", ctx),
+                    buildPath(ctx), ctx.getKey(), e);
             if(!ctx.onError.test(exception))
                 throw exception;
         }
@@ -415,9 +1068,10 @@ public class DocumentBuilder {
      * @return объект, принимающий документ
      */
     public static ValueReceiver testAndGetReceiver(ValueReceiver receiver, Context ctx) throws ConvertDataException {
-        if(ctx.getJsonValue().isObject() || ctx.getJsonValue().isArray()) return receiver;
+        if(ctx.isObjectValue() || ctx.isArrayValue()) return receiver;
         else {
-            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Type is not an value node:", ctx));
+            ConvertDataException exception = new ConvertDataException(buildMsgInfo("Type is not an value node:", ctx),
+                    buildPath(ctx), ctx.getKey(), null);
             if(!ctx.onError.test(exception))
                 throw exception;
         }
@@ -432,70 +1086,26 @@ public class DocumentBuilder {
     public static String buildMsgInfo(String textMsg, Context ctx) {
         return textMsg + " " +
                 "\"" + ctx.getKey() + "\"" +
-                " path " + ctx.getPath().stream().collect(Collectors.joining("\\", "", "\\")) +
+                " path " + ctx.getPath() + "\\" +
                 " in " + ctx.getFileName();
     }
     /**
-     * Добавляет в целевой документ отсутствующие в нем атрибуты.
-     * @param sourceDocument исходный документ
-     * @param targetDocument целевой документ
-     * @return модифицируемый документ
+     * Возвращает путь к узлу, содержащему текущий атрибут, без корневого узла, например check\receipt.
+     * @param ctx набор параметров
+     * @return путь к узлу
      */
-    public static Document appendNotExistsInDocument(Document sourceDocument, Document targetDocument)
-            throws ConvertDataException{
-        Stack<Object> pathInTree = new Stack();
-        int indexCopy[] = {-1}; // Переменная в виде массива для возможности модификации внутри замыкания
-        ValueReceiver appendTemplateReceiver = new ValueReceiver() {
-            public ValueReceiver receive(Context ctx) {
-                String key = ctx.getKey();
-                Object value = ctx.getValue();
-                Stack<String> pathDocs = ctx.getPath();
-                Object target = getTarget(pathInTree, ctx.getPath());
-                Object node = null;
-                if(pathDocs.size() <= indexCopy[0]) { // Поднялись в дереве выше точки копирования
-                    indexCopy[0] = -1;
-                }
-                if(indexCopy[0] == -1) {
-                    if(target instanceof Document) {
-                        node = ((Document) target).get(key);
-                        if (isNull(node)) {
-                            indexCopy[0] = pathInTree.size();
-                        }
-                    } else if(target instanceof List) {
-                        node = ((ArrayList<Object>) target).get(Integer.parseInt(key));
-                        if (isNull(node)) {
-                            indexCopy[0] = pathInTree.size();
-                        }
-                    }
-                }
-                if (isNull(node)) {
-                    node = createNode(value);
-                    addNode(node, target, key, pathInTree);
-                } else {
-                    pathInTree.push(node);
-                }
-                return this;
-            }
-        };
-        ValueReceiver appendTemplateReceiverRoot = createRootReceiver(appendTemplateReceiver, pathInTree);
-        return (Document)forEachNode(sourceDocument, "", appendTemplateReceiverRoot, targetDocument);
+    public static String buildPath(Context ctx) {
+        return ctx.getPath(1);
     }
     /**
-     * Саздаёт ресивер для копирования.
-     * @param nextReceiver следующий ресивер
-     * @param pathInTree путь в дереве
-     * @return объект, принимающий данные обрабатываемого дерева
+     * Добавляет в целевой документ отсутствующие в нем атрибуты. Шаблон компилируется при каждом вызове, для
+     * многократного применения одного шаблона следует использовать MergePlan.
+     * @param sourceDocument исходный документ
+     * @param targetDocument целевой документ
+     * @return модифицируемый документ
      */
-    public static ValueReceiver createRootReceiver(ValueReceiver nextReceiver, Stack<Object> pathInTree) {
-        ValueReceiver receiver = ctx -> {
-            Object root = ctx.getReceiverObject();
-            if(isNull(root)) {
-                root = createNode(ctx.getValue());
-            }
-            pathInTree.push(root);
-            ctx.setReceiverObject(root);
-            return nextReceiver;
-        };
-        return receiver;
+    public static Document appendNotExistsInDocument(Document sourceDocument, Document targetDocument) {
+        MergePlan plan = MergePlan.compile(sourceDocument);
+        return isNull(plan) ? null : plan.apply(targetDocument);
     }
 }
@@ -0,0 +1,141 @@
+package com.example.mongoReactive.util;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Класс DocumentCache представляет кэш документов по идентификатору с вытеснением давно не запрашиваемых документов
+ * при превышении количества документов или их суммарного размера и с ограниченным временем хранения. Документы
+ * хранятся в двоичном формате BSON (RawBsonDocument): размер документа известен точно, а сохранённый документ
+ * не может быть изменён получателем.
+ * Документ, загрузка которого началась до вызова invalidate с тем же идентификатором, в кэш не помещается, поэтому
+ * кэш не возвращает документ, сохранённый до последнего изменения. Изменения других документов на загрузку
+ * не влияют.
+ *
+ * @author Морозов Валентин
+ */
+public class DocumentCache {
+    /** Оценка памяти, занимаемой записью кэша помимо документа. */
+    final private static long ENTRY_OVERHEAD = 96;
+
+    final private LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Номера выполняемых загрузок по идентификатору документа, invalidate удаляет номер загрузки документа. */
+    final private Map<Object, Long> loads = new HashMap<>();
+    private long loadCount;
+    final private long maxEntries;
+    final private long maxWeight;
+    final private long ttlNanos;
+    private long weight;
+    private long invalidationCount;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param maxEntries максимальное количество документов
+     * @param maxWeight максимальный суммарный размер документов в байтах
+     * @param ttl время хранения документа
+     */
+    public DocumentCache(long maxEntries, long maxWeight, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+    }
+    /**
+     * Возвращает документ из кэша или загружает его функцией loader и помещает в кэш. Отсутствующие документы
+     * не кэшируются.
+     * @param id идентификатор документа
+     * @param loader загрузка документа
+     * @return документ
+     */
+    public Mono<RawBsonDocument> get(Object id, Supplier<Mono<RawBsonDocument>> loader) {
+        return Mono.defer(() -> {
+            long load;
+            synchronized(this) {
+                Entry entry = entries.get(id);
+                if(nonNull(entry) && System.nanoTime() - entry.created < ttlNanos) {
+                    hitCount++;
+                    return Mono.just(entry.document);
+                }
+                if(nonNull(entry))
+                    remove(id);
+                missCount++;
+                load = ++loadCount;
+                loads.put(id, load);
+            }
+            return loader.get()
+                    .doOnNext(document -> put(id, document, load))
+                    .doFinally(signal -> finishLoad(id, load));
+        });
+    }
+    /**
+     * Удаляет документ из кэша. Вызывается после изменения документа.
+     */
+    public synchronized void invalidate(Object id) {
+        invalidationCount++;
+        loads.remove(id);
+        remove(id);
+    }
+    /**
+     * Возвращает количество и размер документов кэша, количество попаданий, промахов и вытесненных документов.
+     * @return объект статистики
+     */
+    public synchronized Document getStatistics() {
+        long requests = hitCount + missCount;
+        return new Document("entries", entries.size())
+                .append("weight", weight)
+                .append("hits", hitCount)
+                .append("misses", missCount)
+                .append("hitRate", requests == 0 ? 0.0 : (double)hitCount / requests)
+                .append("evictions", evictionCount)
+                .append("invalidations", invalidationCount);
+    }
+
+    private synchronized void put(Object id, RawBsonDocument document, long load) {
+        if(!Long.valueOf(load).equals(loads.get(id)))
+            return;
+        loads.remove(id);
+        remove(id);
+        Entry entry = new Entry(document, System.nanoTime());
+        entries.put(id, entry);
+        weight += entry.weight;
+        Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+        while((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    private synchronized void finishLoad(Object id, long load) {
+        loads.remove(id, load);
+    }
+
+    private void remove(Object id) {
+        Entry entry = entries.remove(id);
+        if(nonNull(entry))
+            weight -= entry.weight;
+    }
+
+    private static class Entry {
+        final private RawBsonDocument document;
+        final private long created;
+        final private long weight;
+
+        Entry(RawBsonDocument document, long created) {
+            this.document = document;
+            this.created = created;
+            this.weight = document.getByteBuffer().remaining() + ENTRY_OVERHEAD;
+        }
+    }
+}
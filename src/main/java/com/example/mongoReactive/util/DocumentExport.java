@@ -0,0 +1,174 @@
+package com.example.mongoReactive.util;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.bson.RawBsonDocument;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Класс DocumentExport записывает поток документов RawBsonDocument в поток буферов DataBuffer выгрузки:
+ * NDJSON (по документу JSON в строке) или BSON (документы подряд, как в файлах mongodump, читается mongorestore
+ * и bsondump), без сжатия или со сжатием gzip или zstd. Сжатые данные передаются частями по мере накопления
+ * CHUNK_SIZE байт, поэтому в памяти находится не больше одной части и текущего пакета курсора, а следующие
+ * документы запрашиваются по мере записи частей клиенту.
+ *
+ * @author Морозов Валентин
+ */
+public class DocumentExport {
+    final private static int CHUNK_SIZE = 64 * 1024;
+    final private static byte[] NEWLINE = {'\n'};
+
+    /**
+     * Формат выгрузки.
+     */
+    public enum Format {
+        NDJSON("ndjson", MediaType.APPLICATION_NDJSON),
+        BSON("bson", MediaType.APPLICATION_OCTET_STREAM);
+
+        final private String extension;
+        final private MediaType mediaType;
+
+        Format(String extension, MediaType mediaType) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+        }
+    }
+
+    /**
+     * Сжатие выгрузки.
+     */
+    public enum Compression {
+        NONE("", null),
+        GZIP(".gz", new MediaType("application", "gzip")),
+        ZSTD(".zst", new MediaType("application", "zstd"));
+
+        final private String extension;
+        final private MediaType mediaType;
+
+        Compression(String extension, MediaType mediaType) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+        }
+    }
+
+    final private Format format;
+    final private Compression compression;
+    final private RawBsonJsonEncoder jsonEncoder;
+
+    /**
+     * @param jsonEncoder формирует JSON документов для формата NDJSON
+     */
+    public DocumentExport(Format format, Compression compression, RawBsonJsonEncoder jsonEncoder) {
+        this.format = format;
+        this.compression = compression;
+        this.jsonEncoder = jsonEncoder;
+    }
+    /**
+     * Возвращает имя файла выгрузки, например checks.ndjson.gz.
+     */
+    public String getFileName(String name) {
+        return name + "." + format.extension + compression.extension;
+    }
+    /**
+     * Возвращает тип содержимого выгрузки: тип сжатого файла или формата, если сжатие не выполняется.
+     */
+    public MediaType getMediaType() {
+        return compression == Compression.NONE ? format.mediaType : compression.mediaType;
+    }
+    /**
+     * Записывает документы. Сжатие выполняется при подписке на результат, отдельно для каждой подписки.
+     */
+    public Flux<DataBuffer> write(Flux<RawBsonDocument> documents, DataBufferFactory bufferFactory) {
+        return Flux.using(Chunks::new,
+                chunks -> documents
+                        .<DataBuffer>handle((document, sink) -> {
+                            try {
+                                write(document, chunks.output);
+                                if(chunks.bytes.size() >= CHUNK_SIZE)
+                                    sink.next(chunks.drain(bufferFactory));
+                            }
+                            catch(IOException e) {
+                                sink.error(new UncheckedIOException(e));
+                            }
+                        })
+                        .concatWith(Mono.fromCallable(() -> chunks.finish(bufferFactory))
+                                .filter(buffer -> buffer.readableByteCount() > 0)),
+                Chunks::close);
+    }
+
+    private void write(RawBsonDocument document, OutputStream output) throws IOException {
+        if(format == Format.BSON) {
+            ByteBuffer bson = document.getByteBuffer().asNIO();
+            if(bson.hasArray()) {
+                output.write(bson.array(), bson.arrayOffset() + bson.position(), bson.remaining());
+            }
+            else {
+                byte[] bytes = new byte[bson.remaining()];
+                bson.get(bytes);
+                output.write(bytes);
+            }
+        }
+        else {
+            jsonEncoder.write(document, output);
+            output.write(NEWLINE);
+        }
+    }
+
+    /**
+     * Накопитель сжатых данных подписки.
+     */
+    private class Chunks {
+        final private ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE * 2);
+        final private OutputStream output;
+        private boolean closed;
+
+        Chunks() throws IOException {
+            switch(compression) {
+                case GZIP:
+                    output = new GZIPOutputStream(bytes, CHUNK_SIZE);
+                    break;
+                case ZSTD:
+                    output = new ZstdOutputStream(bytes);
+                    break;
+                default:
+                    output = bytes;
+            }
+        }
+
+        DataBuffer drain(DataBufferFactory bufferFactory) {
+            DataBuffer buffer = bufferFactory.wrap(bytes.toByteArray());
+            bytes.reset();
+            return buffer;
+        }
+
+        /**
+         * Завершает сжатие и возвращает оставшиеся данные.
+         */
+        synchronized DataBuffer finish(DataBufferFactory bufferFactory) throws IOException {
+            closed = true;
+            output.close();
+            return drain(bufferFactory);
+        }
+
+        synchronized void close() {
+            if(!closed) {
+                closed = true;
+                try {
+                    output.close();
+                }
+                catch(IOException ignored) {
+                }
+            }
+        }
+    }
+}
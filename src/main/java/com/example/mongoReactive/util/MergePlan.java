@@ -0,0 +1,173 @@
+package com.example.mongoReactive.util;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Класс MergePlan представляет скомпилированный шаблон для добавления в документ отсутствующих в нём атрибутов.
+ * Шаблон обходится один раз при компиляции и сохраняется в виде плоского списка операций в порядке обхода в глубину:
+ * путь к атрибуту (родительская операция и ключ или индекс элемента массива) и копия значения по умолчанию.
+ * При применении плана для каждой операции выполняется один поиск в целевом документе; если атрибут отсутствует,
+ * добавляется копия значения по умолчанию и операции вложенных атрибутов пропускаются. Таким образом стоимость
+ * применения определяется количеством атрибутов шаблона, присутствующих в документе, и размером добавляемых значений,
+ * а не полным обходом шаблона.
+ * План неизменяем и может использоваться одновременно несколькими потоками.
+ *
+ * @author Морозов Валентин
+ */
+public class MergePlan {
+    /** Индекс ячейки родительского узла в массиве узлов целевого документа, -1 для атрибутов корня. */
+    final private int[] parents;
+    /** Индекс ячейки узла-объекта или массива в массиве узлов целевого документа, -1 для конечного атрибута. */
+    final private int[] slots;
+    /** Ключ атрибута, null для элемента массива. */
+    final private String[] keys;
+    /** Индекс элемента массива. */
+    final private int[] indexes;
+    /** Значение по умолчанию, копия значения шаблона. */
+    final private Object[] defaults;
+    /** Индекс операции, следующей за операциями вложенных атрибутов. */
+    final private int[] ends;
+    /** Копия корня шаблона. */
+    final private Document template;
+    /** Количество узлов-объектов и массивов шаблона. */
+    private int slotCount;
+
+    private MergePlan(Document template, int size) {
+        this.template = template;
+        this.parents = new int[size];
+        this.slots = new int[size];
+        this.keys = new String[size];
+        this.indexes = new int[size];
+        this.defaults = new Object[size];
+        this.ends = new int[size];
+    }
+    /**
+     * Компилирует шаблон в план. Изменение шаблона после компиляции не влияет на план.
+     * @param template шаблон
+     * @return план или null, если шаблон не задан
+     */
+    public static MergePlan compile(Document template) {
+        if(isNull(template))
+            return null;
+        Document copy = (Document)copyValue(template);
+        MergePlan plan = new MergePlan(copy, countOperations(copy));
+        plan.compile(copy, -1, 0);
+        return plan;
+    }
+    /**
+     * Добавляет в целевой документ отсутствующие в нём атрибуты шаблона.
+     * @param targetDocument целевой документ
+     * @return целевой документ или копия шаблона, если целевой документ не задан
+     */
+    public Document apply(Document targetDocument) {
+        if(isNull(targetDocument))
+            return (Document)copyValue(template);
+        Object[] targets = new Object[slotCount];
+        int i = 0;
+        while(i < defaults.length) {
+            Object parent = parents[i] < 0 ? targetDocument : targets[parents[i]];
+            Object node = null;
+            if(parent instanceof Document) {
+                node = ((Document)parent).get(keys[i]);
+                if(isNull(node))
+                    ((Document)parent).append(keys[i], copyValue(defaults[i]));
+            }
+            else if(parent instanceof List) {
+                List<Object> list = (List<Object>)parent;
+                if(indexes[i] < list.size()) {
+                    node = list.get(indexes[i]);
+                    if(isNull(node))
+                        list.set(indexes[i], copyValue(defaults[i]));
+                }
+                else {
+                    list.add(copyValue(defaults[i]));
+                }
+            }
+            if(isNull(node) || !isContainer(node) || (node instanceof Document) != (defaults[i] instanceof Document)) {
+                i = ends[i];
+            }
+            else {
+                targets[slots[i]] = node;
+                i++;
+            }
+        }
+        return targetDocument;
+    }
+
+    private int compile(Object node, int parent, int next) {
+        if(node instanceof Document) {
+            for(Map.Entry<String, Object> entry : ((Document)node).entrySet()) {
+                next = compileOperation(parent, next, entry.getKey(), -1, entry.getValue());
+            }
+        }
+        else if(node instanceof List) {
+            List<?> list = (List<?>)node;
+            for(int index = 0; index < list.size(); index++) {
+                next = compileOperation(parent, next, null, index, list.get(index));
+            }
+        }
+        return next;
+    }
+
+    private int compileOperation(int parent, int operation, String key, int index, Object value) {
+        parents[operation] = parent;
+        keys[operation] = key;
+        indexes[operation] = index;
+        defaults[operation] = value;
+        slots[operation] = isContainer(value) ? slotCount++ : -1;
+        int end = compile(value, slots[operation], operation + 1);
+        ends[operation] = end;
+        return end;
+    }
+
+    private static int countOperations(Object node) {
+        int count = 0;
+        if(node instanceof Document) {
+            for(Object value : ((Document)node).values()) {
+                count += 1 + countOperations(value);
+            }
+        }
+        else if(node instanceof List) {
+            for(Object value : (List<?>)node) {
+                count += 1 + countOperations(value);
+            }
+        }
+        return count;
+    }
+
+    private static boolean isContainer(Object value) {
+        return value instanceof Document || value instanceof List;
+    }
+    /**
+     * Возвращает глубокую копию значения. Объекты Document и списки копируются, изменяемые Date и массивы байтов
+     * дублируются, остальные значения (строки, числа, Decimal128, ObjectId) неизменяемы и не копируются.
+     */
+    private static Object copyValue(Object value) {
+        if(value instanceof Document) {
+            Document copy = new Document();
+            for(Map.Entry<String, Object> entry : ((Document)value).entrySet()) {
+                copy.append(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return copy;
+        }
+        if(value instanceof List) {
+            List<?> list = (List<?>)value;
+            List<Object> copy = new ArrayList<>(list.size());
+            for(Object item : list) {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        }
+        if(value instanceof Date) return new Date(((Date)value).getTime());
+        if(value instanceof byte[]) return Arrays.copyOf((byte[])value, ((byte[])value).length);
+        return value;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.mongoReactive.util;
+
+import org.bson.types.Decimal128;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+
+/**
+ * Класс NumberConverter преобразует десятичное число, заданное последовательностью символов, в значение выбранного
+ * типа хранения. Число разбирается непосредственно из символов в long-мантиссу и порядок, без промежуточных строк и
+ * BigDecimal. Допускаются пробельные символы в начале и в конце, знак, целая и дробная части, разделённые точкой;
+ * экспоненциальная запись не поддерживается. Количество значащих цифр ограничено 18.
+ *
+ * @author Морозов Валентин
+ */
+public class NumberConverter implements CharsConverter {
+    /** Максимальное количество значащих цифр, при котором мантисса помещается в long. */
+    final private static int MAX_DIGITS = 18;
+    /** Смещение порядка в формате IEEE 754-2008 decimal128. */
+    final private static long DECIMAL128_EXPONENT_BIAS = 6176;
+    final private static long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L};
+
+    /**
+     * Тип хранения числа.
+     */
+    public enum NumberType {
+        /** Double, значение преобразуется методом Double.parseDouble. */
+        DOUBLE,
+        /** Decimal128 с сохранением количества знаков дробной части. */
+        DECIMAL128,
+        /** Long в сотых долях (копейках), дробная часть не должна содержать более двух значащих цифр. */
+        MINOR_UNITS
+    }
+
+    final private NumberType type;
+
+    private NumberConverter(NumberType type) {
+        this.type = type;
+    }
+    /**
+     * Возвращает функцию преобразования значения для типа хранения.
+     * @param type тип хранения
+     * @return функция преобразования значения
+     */
+    public static ValueConverter of(NumberType type) {
+        return type == NumberType.DOUBLE ? Double::parseDouble : new NumberConverter(type);
+    }
+
+    @Override
+    public Object convert(CharSequence value) {
+        int end = value.length();
+        int i = 0;
+        while(i < end && Character.isWhitespace(value.charAt(i))) i++;
+        while(end > i && Character.isWhitespace(value.charAt(end - 1))) end--;
+        boolean negative = false;
+        if(i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i++) == '-';
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        boolean hasDigits = false;
+        for(; i < end; i++) {
+            char c = value.charAt(i);
+            if(c >= '0' && c <= '9') {
+                hasDigits = true;
+                if(scale >= 0 && ++scale > MAX_DIGITS)
+                    throw new NumberFormatException("Too many fraction digits: \"" + value + "\"");
+                if(unscaled != 0 || c != '0') {
+                    if(++digits > MAX_DIGITS)
+                        throw new NumberFormatException("Too many digits: \"" + value + "\"");
+                }
+                unscaled = unscaled * 10 + (c - '0');
+            }
+            else if(c == '.' && scale < 0) {
+                scale = 0;
+            }
+            else {
+                throw new NumberFormatException("For input string: \"" + value + "\"");
+            }
+        }
+        if(!hasDigits)
+            throw new NumberFormatException("For input string: \"" + value + "\"");
+        if(scale < 0) scale = 0;
+        if(type == NumberType.MINOR_UNITS) {
+            return negative ? -toMinorUnits(unscaled, scale, value) : toMinorUnits(unscaled, scale, value);
+        }
+        return Decimal128.fromIEEE754BIDEncoding(
+                (negative ? Long.MIN_VALUE : 0) | ((DECIMAL128_EXPONENT_BIAS - scale) << 49), unscaled);
+    }
+    /**
+     * Приводит мантиссу к сотым долям. Лишние знаки дробной части допускаются, только если они нулевые.
+     */
+    private static long toMinorUnits(long unscaled, int scale, CharSequence value) {
+        if(scale > 2) {
+            long divisor = POWERS_OF_TEN[scale - 2];
+            if(unscaled % divisor != 0)
+                throw new NumberFormatException("Too many fraction digits: \"" + value + "\"");
+            return unscaled / divisor;
+        }
+        long multiplier = POWERS_OF_TEN[2 - scale];
+        if(unscaled > Long.MAX_VALUE / multiplier)
+            throw new NumberFormatException("Too many digits: \"" + value + "\"");
+        return unscaled * multiplier;
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.mongoReactive.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Decimal128;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Класс RawBsonJsonEncoder записывает документы RawBsonDocument в формате JSON непосредственно из двоичного
+ * представления BSON в буферы DataBuffer, без преобразования в объекты Document и обхода их сериализатором Jackson.
+ * Поток документов записывается массивом JSON, при запросе application/x-ndjson - по одному документу в строке.
+ * <p>
+ * Формат COMPATIBLE совпадает с сериализацией Document кодеком Jackson приложения: ObjectId - шестнадцатеричная
+ * строка, дата - количество миллисекунд, Decimal128 - десятичное число. Формат RELAXED - расширенный JSON MongoDB
+ * в режиме relaxed.
+ *
+ * @author Морозов Валентин
+ */
+public class RawBsonJsonEncoder extends AbstractEncoder<RawBsonDocument> implements HttpMessageEncoder<RawBsonDocument> {
+    /**
+     * Формат JSON.
+     */
+    public enum Format {
+        /** Совпадает с сериализацией Document кодеком Jackson. */
+        COMPATIBLE,
+        /** Расширенный JSON MongoDB в режиме relaxed. */
+        RELAXED
+    }
+
+    final private static JsonFactory JSON_FACTORY = new JsonFactory();
+    final private static JsonWriterSettings RELAXED_SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+    final private static byte[] NEWLINE = {'\n'};
+    final private static byte[] ARRAY_START = {'['};
+    final private static byte[] SEPARATOR = {','};
+    final private static byte[] ARRAY_END = {']'};
+    final private static byte[] EMPTY_ARRAY = {'[', ']'};
+
+    final private Format format;
+
+    public RawBsonJsonEncoder(Format format) {
+        super(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON);
+        this.format = format;
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        return RawBsonDocument.class.isAssignableFrom(elementType.toClass()) && super.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public List<MediaType> getStreamingMediaTypes() {
+        return Collections.singletonList(MediaType.APPLICATION_NDJSON);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<? extends RawBsonDocument> input, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        if(input instanceof Mono)
+            return Mono.from(input).map(document -> encode(document, bufferFactory, null, null)).flux();
+        if(MediaType.APPLICATION_NDJSON.isCompatibleWith(mimeType))
+            return Flux.from(input).map(document -> encode(document, bufferFactory, null, NEWLINE));
+        return Flux.defer(() -> {
+            AtomicBoolean first = new AtomicBoolean(true);
+            return Flux.from(input)
+                    .map(document -> encode(document, bufferFactory,
+                            first.getAndSet(false) ? ARRAY_START : SEPARATOR, null))
+                    .concatWith(Mono.fromSupplier(() -> bufferFactory.wrap(first.get() ? EMPTY_ARRAY : ARRAY_END)));
+        });
+    }
+
+    @Override
+    public DataBuffer encodeValue(RawBsonDocument document, DataBufferFactory bufferFactory,
+                                  ResolvableType valueType, MimeType mimeType, Map<String, Object> hints) {
+        return encode(document, bufferFactory, null, null);
+    }
+
+    private DataBuffer encode(RawBsonDocument document, DataBufferFactory bufferFactory, byte[] prefix, byte[] suffix) {
+        ByteBuffer bson = document.getByteBuffer().asNIO();
+        DataBuffer buffer = bufferFactory.allocateBuffer(bson.remaining() * 2);
+        try {
+            if(nonNull(prefix))
+                buffer.write(prefix);
+            write(bson, buffer.asOutputStream());
+            if(nonNull(suffix))
+                buffer.write(suffix);
+            return buffer;
+        }
+        catch(IOException | RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e instanceof EncodingException ? (EncodingException)e : new EncodingException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Записывает документ в формате JSON в поток. Поток не закрывается.
+     */
+    public void write(RawBsonDocument document, OutputStream output) throws IOException {
+        write(document.getByteBuffer().asNIO(), output);
+    }
+
+    private void write(ByteBuffer bson, OutputStream output) throws IOException {
+        try(BsonBinaryReader reader = new BsonBinaryReader(bson)) {
+            if(format == Format.RELAXED) {
+                Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+                new JsonWriter(writer, RELAXED_SETTINGS).pipe(reader);
+                writer.flush();
+            }
+            else {
+                try(JsonGenerator generator = JSON_FACTORY.createGenerator(output, JsonEncoding.UTF8)
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                    writeDocument(reader, generator);
+                }
+            }
+        }
+    }
+
+    private static void writeDocument(BsonReader reader, JsonGenerator generator) throws IOException {
+        reader.readStartDocument();
+        generator.writeStartObject();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            generator.writeFieldName(reader.readName());
+            writeValue(reader, generator);
+        }
+        generator.writeEndObject();
+        reader.readEndDocument();
+    }
+
+    /**
+     * Записывает Decimal128 числом. NaN и бесконечности записываются строками NaN, Infinity и -Infinity, как
+     * в расширенном JSON и как Jackson записывает такие значения double. Отрицательные значения записываются
+     * строкой Decimal128 (то же научное представление, что и у BigDecimal), так как BigDecimal не представляет -0.
+     */
+    private static void writeDecimal128(Decimal128 decimal, JsonGenerator generator) throws IOException {
+        if(decimal.isNaN() || decimal.isInfinite())
+            generator.writeString(decimal.toString());
+        else if(decimal.isNegative())
+            generator.writeNumber(decimal.toString());
+        else
+            generator.writeNumber(decimal.bigDecimalValue());
+    }
+
+    private static void writeValue(BsonReader reader, JsonGenerator generator) throws IOException {
+        switch(reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                writeDocument(reader, generator);
+                break;
+            case ARRAY:
+                reader.readStartArray();
+                generator.writeStartArray();
+                while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    writeValue(reader, generator);
+                }
+                generator.writeEndArray();
+                reader.readEndArray();
+                break;
+            case STRING:
+                generator.writeString(reader.readString());
+                break;
+            case DOUBLE:
+                generator.writeNumber(reader.readDouble());
+                break;
+            case INT32:
+                generator.writeNumber(reader.readInt32());
+                break;
+            case INT64:
+                generator.writeNumber(reader.readInt64());
+                break;
+            case DECIMAL128:
+                writeDecimal128(reader.readDecimal128(), generator);
+                break;
+            case BOOLEAN:
+                generator.writeBoolean(reader.readBoolean());
+                break;
+            case DATE_TIME:
+                generator.writeNumber(reader.readDateTime());
+                break;
+            case OBJECT_ID:
+                generator.writeString(reader.readObjectId().toHexString());
+                break;
+            case NULL:
+                reader.readNull();
+                generator.writeNull();
+                break;
+            default:
+                throw new EncodingException("Unsupported BSON type " + reader.getCurrentBsonType()
+                        + " of " + reader.getCurrentName());
+        }
+    }
+}
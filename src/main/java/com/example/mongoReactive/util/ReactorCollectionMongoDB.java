@@ -1,27 +1,115 @@
 package com.example.mongoReactive.util;
 
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
 
 public class ReactorCollectionMongoDB extends ReactorRepositoryMongoDB {
+    private static final Logger LOG = LoggerFactory.getLogger(ReactorCollectionMongoDB.class);
     private MongoCollection<Document> collection;
     private String collectionName;
+    private String uniqueKey;
+    private IndexModel uniqueIndex;
+    private final List<IndexModel> indexes = new ArrayList<>();
+    private Environment environment;
 
     public ReactorCollectionMongoDB (String collectionName) {
+        this(collectionName, null);
+    }
+    /**
+     * @param collectionName имя коллекции
+     * @param uniqueKey путь к уникальному ключу документов, например check.external_id
+     * @param indexes индексы запросов к коллекции
+     */
+    public ReactorCollectionMongoDB (String collectionName, String uniqueKey, IndexModel... indexes) {
         super();
         this.collectionName = collectionName;
+        this.uniqueKey = uniqueKey;
+        if(nonNull(uniqueKey)) {
+            this.uniqueIndex = new IndexModel(Indexes.ascending(uniqueKey),
+                    new IndexOptions().unique(true).partialFilterExpression(Filters.exists(uniqueKey)));
+            setUniqueIndexReady(false);
+        }
+        this.indexes.addAll(Arrays.asList(indexes));
     }
 
+    @Autowired
+    void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+    /**
+     * Получает коллекцию и создаёт объявленные индексы: уникальный индекс по ключу uniqueKey для документов,
+     * содержащих этот ключ, и индексы запросов. Существующие индексы не пересоздаются. Индексы создаются асинхронно,
+     * ошибка создания индекса не препятствует запуску приложения.
+     * <p>
+     * Пока уникальный индекс не создан, дубликаты ищутся перед каждой вставкой (см. setUniqueIndexReady).
+     * Уникальный индекс не создаётся, если в коллекции уже есть документы с одинаковыми значениями ключа.
+     * Такие документы удаляются перед перезапуском приложения, например, для ключа check.external_id оставляется
+     * первый сохранённый чек:
+     * <pre>
+     * db.checks.aggregate([
+     *     {$match: {"check.external_id": {$exists: true}}},
+     *     {$sort: {_id: 1}},
+     *     {$group: {_id: "$check.external_id", ids: {$push: "$_id"}, count: {$sum: 1}}},
+     *     {$match: {count: {$gt: 1}}}
+     * ], {allowDiskUse: true}).forEach(d =&gt; db.checks.deleteMany({_id: {$in: d.ids.slice(1)}}))
+     * </pre>
+     * Кэш документов коллекции включается параметрами local.mongo.cache.&lt;имя коллекции&gt;.*: enabled,
+     * max-entries, max-size и ttl.
+     */
     @PostConstruct
     public void init() throws ClassNotFoundException
     {
         this.collection = getMongoDatabase().getCollection(collectionName);
+        String cache = "local.mongo.cache." + collectionName + ".";
+        if(nonNull(environment) && environment.getProperty(cache + "enabled", Boolean.class, false)) {
+            setDocumentCache(new DocumentCache(
+                    environment.getProperty(cache + "max-entries", Long.class, 10_000L),
+                    environment.getProperty(cache + "max-size", DataSize.class, DataSize.ofMegabytes(64)).toBytes(),
+                    environment.getProperty(cache + "ttl", Duration.class, Duration.ofMinutes(10))));
+        }
+        if(nonNull(uniqueIndex)) {
+            Mono.from(collection.createIndex(uniqueIndex.getKeys(), uniqueIndex.getOptions()))
+                    .subscribe(name -> {
+                                setUniqueIndexReady(true);
+                                LOG.info("Index {} on {} is ready", name, collectionName);
+                            },
+                            e -> LOG.error("Unique index on {}.{} is not created, duplicates are searched before every insert. "
+                                    + "Remove documents with repeated {} values and restart: {}",
+                                    collectionName, uniqueKey, uniqueKey, e.getMessage()));
+        }
+        if(!indexes.isEmpty()) {
+            Flux.from(collection.createIndexes(indexes))
+                    .subscribe(name -> LOG.info("Index {} on {} is ready", name, collectionName),
+                            e -> LOG.warn("Indexes on {} are not created: {}", collectionName, e.getMessage()));
+        }
     }
 
     @Override
     public MongoCollection<Document> getCollection() {
         return collection;
     }
+
+    @Override
+    public String getUniqueKey() {
+        return uniqueKey;
+    }
 }
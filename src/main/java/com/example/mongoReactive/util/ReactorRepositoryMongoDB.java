@@ -1,28 +1,231 @@
 package com.example.mongoReactive.util;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.FindPublisher;
 import com.mongodb.reactivestreams.client.MongoCollection;
 import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 public class ReactorRepositoryMongoDB {
+    private static final Logger LOG = LoggerFactory.getLogger(ReactorRepositoryMongoDB.class);
+    /** Версия документа, увеличивается при каждом сохранении. Документы, сохранённые без версии, имеют версию 0. */
+    public static final String VERSION_KEY = "_version";
+    /** Количество изменений пакета документов, одновременно обрабатываемых получателем изменений. */
+    private static final int CHANGE_CONCURRENCY = 8;
+
+    /**
+     * Получатель изменений документов, например, для обновления агрегированных данных.
+     */
+    public interface ChangeListener {
+        /**
+         * Возвращает атрибуты документа, прежнее состояние которых необходимо получателю. Только эти атрибуты
+         * получаются из базы для передачи прежнего состояния документа. Пустой список - прежнее состояние
+         * не требуется.
+         */
+        default List<String> getFields() {
+            return Collections.emptyList();
+        }
+        /**
+         * Возвращает ложь, если изменения сейчас не требуются получателю (например, у него нет подписчиков).
+         * Для неактивного получателя новое состояние документа не формируется.
+         */
+        default boolean isActive() {
+            return true;
+        }
+        /**
+         * Обрабатывает изменение документа.
+         * @param id идентификатор документа
+         * @param before прежнее состояние документа (только атрибуты getFields) или null для нового документа и
+         *               если прежнее состояние не требуется ни одному получателю
+         * @param after новое состояние документа
+         */
+        Mono<Void> changed(BsonValue id, BsonDocument before, BsonDocument after);
+    }
     private MongoDatabase mongoDatabase;
+    /** Объединение одиночных записей в пакеты, null если режим отключён. */
+    private WriteCoalescer writeCoalescer;
+    /** Фильтр значений уникального ключа сохранённых документов, null если уникальный ключ не задан. */
+    private BloomFilter uniqueFilter;
+    /** Уникальный индекс по ключу getUniqueKey создан, вставка без поиска дубликата допустима. */
+    private volatile boolean uniqueIndexReady = true;
+    private int cursorBatchSize = 500;
+    /** Получатели изменений документов. */
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    /** Атрибуты прежнего состояния документа, необходимые получателям изменений. */
+    private volatile List<String> changeFields = Collections.emptyList();
+    /** Кэш документов, получаемых по идентификатору, null если кэширование отключено. */
+    private DocumentCache documentCache;
+    /** Объединение одновременных запросов, null если режим отключён. */
+    private RequestCollapser<Object, Document> findCollapser;
+    private RequestCollapser<Object, RawBsonDocument> findRawCollapser;
 
     @Autowired
     void setMongoDatabase(MongoDatabase mongoDatabase) {
         this.mongoDatabase = mongoDatabase;
     }
+    /**
+     * Включает объединение одиночных записей методами save и insert, поступающих в течение окна window, в пакеты
+     * bulkWrite. Записи сверх maxPending ожидающих отклоняются исключением RejectedExecutionException.
+     */
+    @Autowired
+    synchronized void setWriteCoalescing(@Value("${local.mongo.coalesce.enabled:false}") boolean enabled,
+                                         @Value("${local.mongo.coalesce.max-batch-size:256}") int maxBatchSize,
+                                         @Value("${local.mongo.coalesce.window:2ms}") Duration window,
+                                         @Value("${local.mongo.coalesce.concurrency:4}") int concurrency,
+                                         @Value("${local.mongo.coalesce.max-pending:10000}") int maxPending) {
+        if(nonNull(writeCoalescer))
+            writeCoalescer.dispose();
+        writeCoalescer = enabled
+                ? new WriteCoalescer(() -> getCollection().withDocumentClass(BsonDocument.class), maxBatchSize, window, concurrency, maxPending)
+                : null;
+        warnCoalescingBypassed();
+    }
+
+    /**
+     * Задаёт размер фильтра значений уникального ключа, позволяющего вставлять новые документы без предварительного
+     * поиска дубликата.
+     */
+    @Autowired
+    void setUniqueFilter(@Value("${local.mongo.unique-filter.expected-keys:1000000}") long expectedKeys,
+                         @Value("${local.mongo.unique-filter.fpp:0.01}") double fpp) {
+        uniqueFilter = new BloomFilter(expectedKeys, fpp);
+    }
+
+    /**
+     * Задаёт количество документов, получаемых курсором от сервера за один запрос.
+     */
+    @Autowired
+    void setCursorBatchSize(@Value("${local.mongo.cursor-batch-size:500}") int cursorBatchSize) {
+        this.cursorBatchSize = cursorBatchSize;
+    }
+
+    /**
+     * Включает объединение одновременных запросов findById и findRawById одного документа в один запрос к базе.
+     * Запросы find с произвольным условием не объединяются, их результаты передаются курсором по мере запроса.
+     */
+    @Autowired
+    void setRequestCollapsing(@Value("${local.mongo.collapse-requests:true}") boolean enabled) {
+        findCollapser = enabled ? new RequestCollapser<>() : null;
+        findRawCollapser = enabled ? new RequestCollapser<>() : null;
+    }
+    /**
+     * Возвращает статистику объединения запросов findById и findRawById или null, если режим отключён.
+     */
+    public Document getCollapseStatistics() {
+        if(isNull(findCollapser))
+            return null;
+        return new Document("find", findCollapser.getStatistics())
+                .append("findRaw", findRawCollapser.getStatistics());
+    }
+    /**
+     * Добавляет получателя изменений документов, сохраняемых методами save, insert и saveAll. Если получателю
+     * необходимо прежнее состояние документа, метод save получает его операцией findOneAndUpdate, записи
+     * не объединяются в пакеты. Ошибка получателя не отменяет сохранение документа.
+     * @param changeListener получатель изменений
+     */
+    public synchronized void addChangeListener(ChangeListener changeListener) {
+        changeListeners.add(changeListener);
+        Set<String> fields = new LinkedHashSet<>(changeFields);
+        fields.addAll(changeListener.getFields());
+        changeFields = new ArrayList<>(fields);
+        warnCoalescingBypassed();
+    }
+
+    private void warnCoalescingBypassed() {
+        if(nonNull(writeCoalescer) && !changeFields.isEmpty())
+            LOG.warn("Write coalescing is enabled, but change listeners need previous state of {}: "
+                    + "saves use findOneAndUpdate and are not coalesced", changeFields);
+    }
+    /**
+     * Включает кэширование документов, получаемых методом findById. Документ удаляется из кэша при сохранении
+     * методом save.
+     * @param documentCache кэш документов или null для отключения кэширования
+     */
+    protected void setDocumentCache(DocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+    /**
+     * Сообщает, создан ли уникальный индекс по ключу getUniqueKey. Пока индекса нет, перед каждой вставкой
+     * выполняется поиск документа с тем же значением уникального ключа, фильтр значений не используется.
+     * Одновременные вставки одного значения без индекса не обнаруживаются.
+     */
+    protected void setUniqueIndexReady(boolean uniqueIndexReady) {
+        this.uniqueIndexReady = uniqueIndexReady;
+    }
+    /**
+     * Возвращает статистику кэша документов или null, если кэширование отключено.
+     */
+    public Document getCacheStatistics() {
+        return isNull(documentCache) ? null : documentCache.getStatistics();
+    }
+
+    @PreDestroy
+    public void dispose() {
+        if(nonNull(writeCoalescer))
+            writeCoalescer.dispose();
+    }
+    /**
+     * Возвращает статистику объединения записей или null, если режим отключён.
+     */
+    public Document getWriteStatistics() {
+        return isNull(writeCoalescer) ? null : writeCoalescer.getStatistics();
+    }
 
     public MongoCollection<Document> getCollection() {
         return null;
     }
+    /**
+     * Возвращает путь к уникальному ключу документов, например check.external_id, или null, если ключ не задан.
+     */
+    public String getUniqueKey() {
+        return null;
+    }
 
     public MongoDatabase getMongoDatabase() {
         return mongoDatabase;
@@ -32,34 +235,435 @@ public class ReactorRepositoryMongoDB {
         return save(idDocument(id), document);
     }
 
+    public Mono<Document> save(String id, RawBsonDocument document)  throws IllegalObjectIdException {
+        return save(idDocument(id), document);
+    }
+
+    /**
+     * Сохраняет документ и увеличивает его версию VERSION_KEY.
+     */
     public Mono<Document> save(Document key, Document document) {
-        UpdateOptions options = new UpdateOptions().upsert(true);
-        Document update = new Document("$set", document);
-        return
-            Mono.from(getCollection().updateOne(key, update, options))
+        return upsert(key, new Document("$set", document).append("$inc", new Document(VERSION_KEY, 1L)),
+                () -> toBsonDocument(document));
+    }
+    /**
+     * Сохраняет документ, сформированный в двоичном формате BSON. Документ передаётся драйверу без повторного
+     * кодирования.
+     */
+    public Mono<Document> save(Document key, RawBsonDocument document) {
+        return upsert(key, new BsonDocument("$set", document).append("$inc", new BsonDocument(VERSION_KEY, new BsonInt64(1))),
+                () -> document);
+    }
+
+    /**
+     * Вставляет новый документ с новым идентификатором. Если документ с тем же значением уникального ключа уже
+     * сохранён, документ не вставляется и возвращается идентификатор сохранённого документа: {"Duplicate": id}.
+     * Поиск дубликата выполняется только для значений, которые, возможно, уже сохранялись, остальные документы
+     * вставляются сразу, повторная отправка обнаруживается уникальным индексом.
+     * @return {"Inserted": id} или {"Duplicate": id}
+     */
+    public Mono<Document> insert(Document document) {
+        ObjectId id = new ObjectId();
+        Document insertDocument = new Document("_id", id).append(VERSION_KEY, 1L);
+        insertDocument.putAll(document);
+        return insert(id, uniqueValue(document), Mono.defer(() -> nonNull(writeCoalescer)
+                        ? writeCoalescer.insert(toBsonDocument(insertDocument), Mono::error)
+                        : Mono.from(getCollection().insertOne(insertDocument))),
+                () -> toBsonDocument(document));
+    }
+    /**
+     * Вставляет новый документ, сформированный в двоичном формате BSON. Вложенные документы передаются драйверу без
+     * повторного кодирования.
+     * @return {"Inserted": id} или {"Duplicate": id}
+     */
+    public Mono<Document> insert(RawBsonDocument document) {
+        ObjectId id = new ObjectId();
+        return insert(id, uniqueValue(document), Mono.defer(() -> nonNull(writeCoalescer)
+                        ? writeCoalescer.insert(withId(id, document), Mono::error)
+                        : Mono.from(getCollection().withDocumentClass(BsonDocument.class).insertOne(withId(id, document)))),
+                () -> document);
+    }
+
+    private Mono<Document> insert(ObjectId id, String uniqueValue, Mono<?> insert, Supplier<BsonDocument> after) {
+        Mono<Document> inserted = insert
+                .flatMap(r -> {
+                    if(nonNull(uniqueValue))
+                        uniqueFilter.add(uniqueValue);
+                    return notifyChanged(new BsonObjectId(id), null, after)
+                            .thenReturn(new Document("Inserted", id.toString()));
+                })
                 .onErrorResume(MongoWriteException.class, e ->
-                        e.getCode() == 11000
-                            ? Mono.from(getCollection().updateOne(key, update, options.upsert(false)))
-                            : Mono.error(e)
-                    )
+                        e.getCode() == 11000 && nonNull(uniqueValue)
+                                ? findDuplicate(uniqueValue).switchIfEmpty(Mono.error(e))
+                                : Mono.error(e));
+        if(isNull(uniqueValue) || uniqueIndexReady && !uniqueFilter.mightContain(uniqueValue))
+            return inserted;
+        return findDuplicate(uniqueValue).switchIfEmpty(inserted);
+    }
+
+    private Mono<Document> findDuplicate(String uniqueValue) {
+        return Mono.from(getCollection().find(Filters.eq(getUniqueKey(), uniqueValue))
+                        .projection(Projections.include("_id")).first())
+                .map(document -> new Document("Duplicate", document.getObjectId("_id").toString()));
+    }
+
+    private Mono<Document> upsert(Document key, Bson update, Supplier<BsonDocument> set) {
+        if(nonNull(documentCache))
+            return upsertDocument(key, update, set).doFinally(signal -> documentCache.invalidate(key.get("_id")));
+        return upsertDocument(key, update, set);
+    }
+
+    private Mono<Document> upsertDocument(Document key, Bson update, Supplier<BsonDocument> set) {
+        if(!changeFields.isEmpty())
+            return upsertChanged(key, update, set);
+        if(!changeListeners.isEmpty())
+            return upsertUnchecked(key, update, set)
+                    .flatMap(result -> result.containsKey("Inserted") || result.containsKey("Updated")
+                            ? notifyChanged(new BsonObjectId(key.getObjectId("_id")), null, set).thenReturn(result)
+                            : Mono.just(result));
+        return upsertUnchecked(key, update, set);
+    }
+
+    private Mono<Document> upsertUnchecked(Document key, Bson update, Supplier<BsonDocument> set) {
+        if(nonNull(writeCoalescer))
+            return writeCoalescer.upsert(key, update, e -> update(key, update, set, e));
+        return
+            Mono.from(getCollection().updateOne(key, update, new UpdateOptions().upsert(true)))
                 .map(r -> isNull(r.getUpsertedId())
                     ? new Document("Updated",key.get("_id").toString())
                     : new Document("Inserted", r.getUpsertedId().asObjectId().getValue().toString())
-        );
+                )
+                .onErrorResume(MongoWriteException.class, e ->
+                        e.getCode() == 11000
+                            ? update(key, update, set, e)
+                            : Mono.error(e)
+                    );
+    }
+    /**
+     * Сохраняет документ операцией findOneAndUpdate, получая прежнее состояние атрибутов changeFields,
+     * и передаёт изменение получателям. Новое состояние - прежнее с заменой атрибутов верхнего уровня из set.
+     * После ошибки дублирования ключа запись повторяется без вставки; если повтор не нашёл документ, значение
+     * уникального ключа принадлежит другому документу, документ не записан и получатели не уведомляются.
+     */
+    private Mono<Document> upsertChanged(Document key, Bson update, Supplier<BsonDocument> set) {
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .upsert(true)
+                .returnDocument(ReturnDocument.BEFORE)
+                .projection(Projections.include(changeFields));
+        MongoCollection<BsonDocument> collection = getCollection().withDocumentClass(BsonDocument.class);
+        return Mono.from(collection.findOneAndUpdate(key, update, options))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(before -> notifySaved(key, before.orElse(null), set))
+                .onErrorResume(MongoCommandException.class, e -> e.getErrorCode() != 11000
+                        ? Mono.error(e)
+                        : Mono.from(collection.findOneAndUpdate(key, update, options.upsert(false)))
+                                .flatMap(before -> notifySaved(key, before, set))
+                                .switchIfEmpty(Mono.defer(() -> duplicate(set, e)))
+                                .onErrorResume(MongoCommandException.class, retryError ->
+                                        retryError.getErrorCode() == 11000
+                                                ? duplicate(set, retryError)
+                                                : Mono.error(retryError)));
+    }
+    /**
+     * Передаёт получателям изменение записанного документа.
+     * @param before прежнее состояние документа или null, если документ вставлен
+     * @return {"Updated": id} или {"Inserted": id}
+     */
+    private Mono<Document> notifySaved(Document key, BsonDocument before, Supplier<BsonDocument> set) {
+        return notifyChanged(new BsonObjectId(key.getObjectId("_id")), before, () -> {
+                    BsonDocument after = isNull(before) ? new BsonDocument() : before.clone();
+                    after.putAll(set.get());
+                    return after;
+                })
+                .thenReturn(new Document(isNull(before) ? "Inserted" : "Updated", key.get("_id").toString()));
+    }
+
+    private Mono<Void> notifyChanged(BsonValue id, BsonDocument before, Supplier<BsonDocument> after) {
+        if(changeListeners.isEmpty())
+            return Mono.empty();
+        List<ChangeListener> listeners = changeListeners.stream().filter(ChangeListener::isActive).collect(Collectors.toList());
+        if(listeners.isEmpty())
+            return Mono.empty();
+        return Mono.fromSupplier(after)
+                .flatMapMany(document -> Flux.fromIterable(listeners)
+                        .flatMap(listener -> listener.changed(id, before, document)
+                                .onErrorResume(e -> {
+                                    LOG.warn("Change listener failed: {}", e.getMessage());
+                                    return Mono.empty();
+                                })))
+                .then();
+    }
+
+    private BsonDocument toBsonDocument(Document document) {
+        return document.toBsonDocument(BsonDocument.class, getCollection().getCodecRegistry());
+    }
+    /**
+     * Повторяет запись без вставки после ошибки дублирования ключа. Если документ с тем же идентификатором вставлен
+     * одновременной записью, повтор изменяет его. Если повтор не нашёл документ или снова нарушил уникальный индекс,
+     * ошибка вызвана значением уникального ключа, уже принадлежащим другому документу: документ не записывается
+     * и возвращается идентификатор документа с этим значением.
+     * @param set записываемые атрибуты документа
+     * @param e ошибка дублирования ключа
+     * @return {"Updated": id}, {"Duplicate": id} или ошибка e, если документ с тем же значением не найден
+     */
+    private Mono<Document> update(Document key, Bson update, Supplier<BsonDocument> set, MongoException e) {
+        return Mono.from(getCollection().updateOne(key, update, new UpdateOptions().upsert(false)))
+                .flatMap(r -> r.getMatchedCount() > 0
+                        ? Mono.just(new Document("Updated", key.get("_id").toString()))
+                        : duplicate(set, e))
+                .onErrorResume(MongoWriteException.class, retryError -> retryError.getCode() == 11000
+                        ? duplicate(set, retryError)
+                        : Mono.error(retryError));
+    }
+    /**
+     * Возвращает идентификатор сохранённого документа с тем же значением уникального ключа, что и у атрибутов set,
+     * или ошибку e, если такой документ не найден.
+     */
+    private Mono<Document> duplicate(Supplier<BsonDocument> set, MongoException e) {
+        String uniqueValue = uniqueValue(set.get());
+        if(isNull(uniqueValue))
+            return Mono.error(e);
+        return findDuplicate(uniqueValue).switchIfEmpty(Mono.error(e));
+    }
+
+    /**
+     * Вставляет пакет новых документов одной неупорядоченной операцией bulkWrite. Каждому документу присваивается
+     * новый идентификатор. Ошибка записи документа не прерывает запись остальных документов пакета. Для документов,
+     * отклонённых уникальным индексом, возвращается идентификатор ранее сохранённого документа. Если уникальный
+     * индекс не создан, сохранённые документы с теми же значениями уникального ключа ищутся до записи пакета,
+     * а повторы значения внутри пакета не записываются.
+     * @param documents документы в формате BSON
+     * @return результаты сохранения в порядке следования документов: {"Inserted": id}, {"Duplicate": id}
+     * или {"Error": message}
+     */
+    public Mono<List<Document>> saveAll(List<RawBsonDocument> documents) {
+        if(uniqueIndexReady || isNull(getUniqueKey()))
+            return insertAll(documents);
+        Set<String> uniqueValues = documents.stream().map(this::uniqueValue).filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if(uniqueValues.isEmpty())
+            return insertAll(documents);
+        return Flux.from(getCollection().find(Filters.in(getUniqueKey(), uniqueValues))
+                        .projection(Projections.include("_id", getUniqueKey())))
+                .collectMap(ReactorRepositoryMongoDB.this::uniqueValue, document -> document.getObjectId("_id"))
+                .flatMap(saved -> saveAllChecked(documents, saved));
+    }
+    /**
+     * Записывает документы пакета, значения уникального ключа которых не сохранены и не повторяются в пакете.
+     * @param saved идентификаторы сохранённых документов по значениям уникального ключа
+     */
+    private Mono<List<Document>> saveAllChecked(List<RawBsonDocument> documents, Map<String, ObjectId> saved) {
+        List<Integer> written = new ArrayList<>(documents.size());
+        Map<Integer, Integer> repeated = new HashMap<>();
+        Map<String, Integer> first = new HashMap<>();
+        for(int i = 0; i < documents.size(); i++) {
+            String uniqueValue = uniqueValue(documents.get(i));
+            if(nonNull(uniqueValue) && saved.containsKey(uniqueValue))
+                continue;
+            Integer firstIndex = isNull(uniqueValue) ? null : first.putIfAbsent(uniqueValue, i);
+            if(nonNull(firstIndex))
+                repeated.put(i, firstIndex);
+            else
+                written.add(i);
+        }
+        return insertAll(written.stream().map(documents::get).collect(Collectors.toList()))
+                .map(inserted -> {
+                    Document[] results = new Document[documents.size()];
+                    for(int j = 0; j < written.size(); j++) {
+                        results[written.get(j)] = inserted.get(j);
+                    }
+                    repeated.forEach((i, firstIndex) -> results[i] = results[firstIndex].containsKey("Inserted")
+                            ? new Document("Duplicate", results[firstIndex].get("Inserted"))
+                            : results[firstIndex]);
+                    for(int i = 0; i < results.length; i++) {
+                        if(isNull(results[i]))
+                            results[i] = new Document("Duplicate", saved.get(uniqueValue(documents.get(i))).toString());
+                    }
+                    return Arrays.asList(results);
+                });
+    }
+
+    private Mono<List<Document>> insertAll(List<RawBsonDocument> documents) {
+        if(documents.isEmpty()) {
+            return Mono.just(Collections.emptyList());
+        }
+        List<ObjectId> ids = new ArrayList<>(documents.size());
+        List<String> uniqueValues = new ArrayList<>(documents.size());
+        List<WriteModel<BsonDocument>> requests = new ArrayList<>(documents.size());
+        for(RawBsonDocument document : documents) {
+            ObjectId id = new ObjectId();
+            ids.add(id);
+            uniqueValues.add(uniqueValue(document));
+            requests.add(new InsertOneModel<>(withId(id, document)));
+        }
+        return Mono.from(getCollection().withDocumentClass(BsonDocument.class)
+                        .bulkWrite(requests, new BulkWriteOptions().ordered(false)))
+                .map(r -> Collections.<BulkWriteError>emptyList())
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(e.getWriteErrors()))
+                .flatMap(errors -> insertResults(ids, uniqueValues, errors))
+                .flatMap(results -> notifyInserted(ids, documents, results).thenReturn(results));
+    }
+
+    private Mono<Void> notifyInserted(List<ObjectId> ids, List<RawBsonDocument> documents, List<Document> results) {
+        if(changeListeners.isEmpty())
+            return Mono.empty();
+        return Flux.range(0, results.size())
+                .filter(i -> results.get(i).containsKey("Inserted"))
+                .flatMap(i -> notifyChanged(new BsonObjectId(ids.get(i)), null, () -> documents.get(i)), CHANGE_CONCURRENCY)
+                .then();
+    }
+
+    private Mono<List<Document>> insertResults(List<ObjectId> ids, List<String> uniqueValues, List<BulkWriteError> errors) {
+        Document[] results = new Document[ids.size()];
+        Map<Integer, String> duplicates = new HashMap<>();
+        for(BulkWriteError error : errors) {
+            String uniqueValue = uniqueValues.get(error.getIndex());
+            if(error.getCode() == 11000 && nonNull(uniqueValue))
+                duplicates.put(error.getIndex(), uniqueValue);
+            results[error.getIndex()] = new Document("Error", error.getMessage());
+        }
+        for(int i = 0; i < results.length; i++) {
+            if(isNull(results[i])) {
+                results[i] = new Document("Inserted", ids.get(i).toString());
+                if(nonNull(uniqueValues.get(i)))
+                    uniqueFilter.add(uniqueValues.get(i));
+            }
+        }
+        if(duplicates.isEmpty())
+            return Mono.just(Arrays.asList(results));
+        return Flux.from(getCollection().find(Filters.in(getUniqueKey(), new HashSet<>(duplicates.values())))
+                        .projection(Projections.include("_id", getUniqueKey())))
+                .collectMap(ReactorRepositoryMongoDB.this::uniqueValue, document -> document.getObjectId("_id"))
+                .map(saved -> {
+                    duplicates.forEach((index, uniqueValue) -> {
+                        if(saved.containsKey(uniqueValue))
+                            results[index] = new Document("Duplicate", saved.get(uniqueValue).toString());
+                    });
+                    return Arrays.asList(results);
+                });
+    }
+    /**
+     * Возвращает документ с идентификатором id, начальной версией и атрибутами документа document.
+     */
+    private static BsonDocument withId(ObjectId id, RawBsonDocument document) {
+        BsonDocument insertDocument = new BsonDocument("_id", new BsonObjectId(id)).append(VERSION_KEY, new BsonInt64(1));
+        insertDocument.putAll(document);
+        return insertDocument;
+    }
+    /**
+     * Возвращает строковое значение уникального ключа документа или null.
+     */
+    private String uniqueValue(Document document) {
+        if(isNull(getUniqueKey()))
+            return null;
+        Object value = document;
+        for(String key : getUniqueKey().split("\\.")) {
+            if(!(value instanceof Document))
+                return null;
+            value = ((Document)value).get(key);
+        }
+        return value instanceof String ? (String)value : null;
+    }
+
+    private String uniqueValue(BsonDocument document) {
+        if(isNull(getUniqueKey()))
+            return null;
+        BsonValue value = document;
+        for(String key : getUniqueKey().split("\\.")) {
+            if(!value.isDocument())
+                return null;
+            value = value.asDocument().get(key);
+            if(isNull(value))
+                return null;
+        }
+        return value.isString() ? value.asString().getValue() : null;
     }
 
     public Flux<Document> findById(String id)  throws IllegalObjectIdException {
-        return Flux.from(getCollection().find(idDocument(id) ));
+        if(nonNull(documentCache))
+            return findRawById(id)
+                    .map(document -> document.decode(getCollection().getCodecRegistry().get(Document.class)))
+                    .flux();
+        Document key = idDocument(id);
+        if(isNull(findCollapser))
+            return find(key);
+        return findCollapser.get(key.get("_id"), () -> Mono.from(getCollection().find(key).first())).flux();
     }
+    /**
+     * Возвращает документ в двоичном формате BSON без преобразования в объект Document. Документ получается из кэша,
+     * если включено кэширование; одновременные запросы одного документа выполняются одним запросом к базе, если
+     * включено объединение запросов.
+     */
+    public Mono<RawBsonDocument> findRawById(String id) throws IllegalObjectIdException {
+        Document key = idDocument(id);
+        Supplier<Mono<RawBsonDocument>> find = () -> Mono.from(
+                getCollection().withDocumentClass(RawBsonDocument.class).find(key).first());
+        Supplier<Mono<RawBsonDocument>> load = isNull(findRawCollapser)
+                ? find
+                : () -> findRawCollapser.get(key.get("_id"), find);
+        return isNull(documentCache) ? load.get() : documentCache.get(key.get("_id"), load);
+    }
+    /**
+     * Возвращает документы, удовлетворяющие условию expression.
+     */
     public Flux<Document> find(Document expression) {
         return Flux.from(getCollection().find(expression));
     }
 
+    /**
+     * Возвращает версию документа.
+     */
+    public static long getVersion(RawBsonDocument document) {
+        BsonValue version = document.get(VERSION_KEY);
+        return nonNull(version) && version.isNumber() ? version.asNumber().longValue() : 0L;
+    }
+
+
     public Flux<Document> findAll() {
-        return Flux.from(getCollection().find());
+        return Flux.from(getCollection().find().batchSize(cursorBatchSize));
+    }
+    /**
+     * Возвращает страницу документов в порядке возрастания идентификатора (постраничный вывод по ключу _id).
+     * Следующая страница запрашивается с идентификатором последнего документа предыдущей страницы, поэтому
+     * время получения страницы не зависит от её номера.
+     * @param after идентификатор, после которого начинается страница, или пустая строка для первой страницы
+     * @param limit максимальное количество документов страницы
+     * @param fields включаемые в документы атрибуты, например check.total, или пустой список для всех атрибутов
+     */
+    public Flux<RawBsonDocument> findPage(String after, int limit, List<String> fields) throws IllegalObjectIdException {
+        return findRaw(after.isEmpty() ? new Document() : Filters.gt("_id", idDocument(after).get("_id")),
+                Sorts.ascending("_id"), limit, fields);
+    }
+    /**
+     * Возвращает все документы, удовлетворяющие условию filter, в порядке _id, в двоичном формате BSON.
+     * Курсор получает из базы пакеты по batchSize документов по мере запроса документов подписчиком.
+     */
+    public Flux<RawBsonDocument> findAllRaw(Bson filter, int batchSize) {
+        return Flux.from(getCollection()
+                .withDocumentClass(RawBsonDocument.class)
+                .find(filter)
+                .sort(Sorts.ascending("_id"))
+                .batchSize(batchSize));
+    }
+    /**
+     * Возвращает документы, удовлетворяющие условию filter, в порядке sort, в двоичном формате BSON.
+     * @param limit максимальное количество документов
+     * @param fields включаемые в документы атрибуты или пустой список для всех атрибутов
+     */
+    public Flux<RawBsonDocument> findRaw(Bson filter, Bson sort, int limit, List<String> fields) {
+        FindPublisher<RawBsonDocument> find = getCollection()
+                .withDocumentClass(RawBsonDocument.class)
+                .find(filter)
+                .sort(sort)
+                .limit(limit)
+                .batchSize(Math.min(limit, cursorBatchSize));
+        if(!fields.isEmpty())
+            find = find.projection(Projections.include(fields));
+        return Flux.from(find);
     }
 
-    private Document idDocument(String id) throws IllegalObjectIdException {
+    public Document idDocument(String id) throws IllegalObjectIdException {
         try {
             return new Document("_id",
                     id.isEmpty()
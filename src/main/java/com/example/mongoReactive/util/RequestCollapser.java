@@ -0,0 +1,64 @@
+package com.example.mongoReactive.util;
+
+import org.bson.Document;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Класс RequestCollapser объединяет одновременные запросы с одинаковым ключом: пока запрос выполняется, повторные
+ * запросы с тем же ключом не выполняются, а получают результат выполняемого запроса. Ключ удаляется после завершения
+ * запроса, поэтому следующий запрос с тем же ключом выполняется заново, результаты не кэшируются.
+ * Все объединённые запросы получают один и тот же объект результата, получатели не должны его изменять.
+ *
+ * @author Морозов Валентин
+ */
+public class RequestCollapser<K, V> {
+    final private Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    final private AtomicLong requestCount = new AtomicLong();
+    final private AtomicLong collapsedCount = new AtomicLong();
+
+    /**
+     * Возвращает результат выполняемого запроса с ключом key или выполняет запрос функцией loader.
+     * @param key ключ запроса
+     * @param loader выполнение запроса
+     * @return результат запроса
+     */
+    public Mono<V> get(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> {
+            requestCount.incrementAndGet();
+            Mono<V> running = inFlight.get(key);
+            if(nonNull(running)) {
+                collapsedCount.incrementAndGet();
+                return running;
+            }
+            AtomicReference<Mono<V>> created = new AtomicReference<>();
+            running = inFlight.computeIfAbsent(key, k -> {
+                Mono<V> request = loader.get()
+                        .doFinally(signal -> inFlight.remove(k, created.get()))
+                        .cache();
+                created.set(request);
+                return request;
+            });
+            if(running != created.get())
+                collapsedCount.incrementAndGet();
+            return running;
+        });
+    }
+    /**
+     * Возвращает количество запросов, количество запросов, получивших результат другого запроса, и количество
+     * выполняемых запросов.
+     * @return объект статистики
+     */
+    public Document getStatistics() {
+        return new Document("requests", requestCount.get())
+                .append("collapsed", collapsedCount.get())
+                .append("inFlight", inFlight.size());
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.mongoReactive.util;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Класс WriteCoalescer объединяет одиночные upsert-операции и вставки, поступающие в течение короткого окна (или до
+ * заполнения пакета), в одну неупорядоченную операцию bulkWrite. Каждый вызывающий получает собственный результат
+ * Inserted/Updated или ошибку. Результат операции, завершившейся ошибкой дублирования ключа (11000), определяет
+ * функция onDuplicateKey операции так же, как при одиночной записи.
+ * <p>
+ * Количество принятых и ещё не записанных операций ограничено maxPending: при заполнении очереди новая операция
+ * сразу отклоняется исключением RejectedExecutionException, а не ожидает освобождения очереди.
+ *
+ * @author Морозов Валентин
+ */
+public class WriteCoalescer {
+    final private static UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    final private static BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    final private Supplier<MongoCollection<BsonDocument>> collection;
+    final private Disposable subscription;
+    final private AtomicLong batchCount = new AtomicLong();
+    final private AtomicLong writeCount = new AtomicLong();
+    final private AtomicLong rejectedCount = new AtomicLong();
+    final private AtomicInteger pendingCount = new AtomicInteger();
+    final private int maxPending;
+    private FluxSink<PendingWrite> sink;
+
+    /**
+     * @param collection коллекция, в которую выполняется запись
+     * @param maxBatchSize максимальное количество операций в пакете
+     * @param window максимальное время ожидания операций пакета
+     * @param concurrency максимальное количество одновременно выполняемых пакетов
+     * @param maxPending максимальное количество принятых и ещё не записанных операций
+     */
+    public WriteCoalescer(Supplier<MongoCollection<BsonDocument>> collection,
+                          int maxBatchSize, Duration window, int concurrency, int maxPending) {
+        this.collection = collection;
+        this.maxPending = maxPending;
+        // размер буферов ограничен счётчиком pendingCount
+        this.subscription = Flux.<PendingWrite>create(sink -> this.sink = sink)
+                .bufferTimeout(maxBatchSize, window)
+                .onBackpressureBuffer()
+                .flatMap(this::write, concurrency)
+                .subscribe();
+    }
+    /**
+     * Добавляет upsert-операцию в очередной пакет. Операция выполняется при подписке на результат. Если очередь
+     * заполнена, результат - ошибка RejectedExecutionException.
+     * @param key ключ документа
+     * @param update изменение документа
+     * @param onDuplicateKey результат операции, завершившейся ошибкой дублирования ключа
+     * @return результат сохранения документа
+     */
+    public Mono<Document> upsert(Document key, Bson update,
+                                 Function<MongoWriteException, Mono<Document>> onDuplicateKey) {
+        return write(key.get("_id").toString(), new UpdateOneModel<>(key, update, UPSERT), onDuplicateKey);
+    }
+    /**
+     * Добавляет вставку документа в очередной пакет. Операция выполняется при подписке на результат. Если очередь
+     * заполнена, результат - ошибка RejectedExecutionException.
+     * @param document вставляемый документ с идентификатором _id
+     * @param onDuplicateKey результат операции, завершившейся ошибкой дублирования ключа
+     * @return {"Inserted": id} или результат onDuplicateKey
+     */
+    public Mono<Document> insert(BsonDocument document,
+                                 Function<MongoWriteException, Mono<Document>> onDuplicateKey) {
+        return write(document.getObjectId("_id").getValue().toString(), new InsertOneModel<>(document), onDuplicateKey);
+    }
+
+    private Mono<Document> write(String id, WriteModel<BsonDocument> request,
+                                 Function<MongoWriteException, Mono<Document>> onDuplicateKey) {
+        return Mono.create(result -> {
+            if(pendingCount.incrementAndGet() > maxPending) {
+                pendingCount.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                result.error(new RejectedExecutionException("Write queue is full"));
+                return;
+            }
+            sink.next(new PendingWrite(id, request, onDuplicateKey, result));
+        });
+    }
+    /**
+     * Возвращает количество выполненных пакетов и операций, ожидающих записи и отклонённых операций.
+     * @return объект статистики
+     */
+    public Document getStatistics() {
+        return new Document("batches", batchCount.get()).append("writes", writeCount.get())
+                .append("pending", pendingCount.get()).append("rejected", rejectedCount.get());
+    }
+
+    public void dispose() {
+        subscription.dispose();
+    }
+
+    private Mono<Void> write(List<PendingWrite> batch) {
+        List<WriteModel<BsonDocument>> requests = new ArrayList<>(batch.size());
+        for(PendingWrite write : batch) {
+            requests.add(write.request);
+        }
+        batchCount.incrementAndGet();
+        writeCount.addAndGet(batch.size());
+        return Mono.from(collection.get().bulkWrite(requests, UNORDERED))
+                .doOnNext(result -> complete(batch, result, Collections.emptyList(), null))
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    complete(batch, e.getWriteResult(), e.getWriteErrors(), e);
+                    return Mono.empty();
+                })
+                .onErrorResume(e -> {
+                    for(PendingWrite write : batch) {
+                        write.result.error(e);
+                    }
+                    return Mono.empty();
+                })
+                .doFinally(signal -> pendingCount.addAndGet(-batch.size()))
+                .then();
+    }
+
+    private void complete(List<PendingWrite> batch, BulkWriteResult result, List<BulkWriteError> errors,
+                          MongoBulkWriteException exception) {
+        boolean[] completed = new boolean[batch.size()];
+        for(BulkWriteUpsert upsert : result.getUpserts()) {
+            completed[upsert.getIndex()] = true;
+            batch.get(upsert.getIndex()).result.success(
+                    new Document("Inserted", upsert.getId().asObjectId().getValue().toString()));
+        }
+        for(BulkWriteError error : errors) {
+            PendingWrite write = batch.get(error.getIndex());
+            completed[error.getIndex()] = true;
+            MongoWriteException writeException = new MongoWriteException(
+                    new WriteError(error.getCode(), error.getMessage(), error.getDetails()),
+                    exception.getServerAddress());
+            if(error.getCode() == 11000) {
+                write.onDuplicateKey.apply(writeException).subscribe(write.result::success, write.result::error);
+            }
+            else {
+                write.result.error(writeException);
+            }
+        }
+        for(int i = 0; i < completed.length; i++) {
+            if(!completed[i]) {
+                PendingWrite write = batch.get(i);
+                write.result.success(new Document(write.request instanceof InsertOneModel ? "Inserted" : "Updated", write.id));
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        final private String id;
+        final private WriteModel<BsonDocument> request;
+        final private Function<MongoWriteException, Mono<Document>> onDuplicateKey;
+        final private MonoSink<Document> result;
+
+        PendingWrite(String id, WriteModel<BsonDocument> request,
+                     Function<MongoWriteException, Mono<Document>> onDuplicateKey, MonoSink<Document> result) {
+            this.id = id;
+            this.request = request;
+            this.onDuplicateKey = onDuplicateKey;
+            this.result = result;
+        }
+    }
+}
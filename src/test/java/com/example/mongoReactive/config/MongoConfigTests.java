@@ -0,0 +1,34 @@
+package com.example.mongoReactive.config;
+
+import com.mongodb.MongoCompressor;
+import com.mongodb.WriteConcern;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MongoConfigTests {
+
+	@Test
+	void compressorsFromProperty() {
+		List<MongoCompressor> compressors = MongoConfig.compressors(Arrays.asList("zstd", " Snappy", "zlib"));
+		assertEquals(Arrays.asList("zstd", "snappy", "zlib"),
+				compressors.stream().map(MongoCompressor::getName).collect(Collectors.toList()));
+		assertTrue(MongoConfig.compressors(Collections.singletonList("")).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> MongoConfig.compressors(Collections.singletonList("lz4")));
+	}
+
+	@Test
+	void writeConcernFromProperty() {
+		assertEquals(WriteConcern.MAJORITY, MongoConfig.writeConcern("majority"));
+		assertEquals(WriteConcern.ACKNOWLEDGED, MongoConfig.writeConcern("acknowledged"));
+		assertEquals(new WriteConcern(2), MongoConfig.writeConcern("2"));
+		assertThrows(IllegalArgumentException.class, () -> MongoConfig.writeConcern("sometimes"));
+	}
+}
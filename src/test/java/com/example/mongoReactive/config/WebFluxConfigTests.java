@@ -0,0 +1,92 @@
+package com.example.mongoReactive.config;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WebFluxConfigTests {
+
+	private static final ObjectId FIRST = new ObjectId("62f0c6e1a3b4c5d6e7f80911");
+	private static final ObjectId SECOND = new ObjectId("62f0c6e1a3b4c5d6e7f80912");
+
+	private static final Document CHECK = new Document("_id", FIRST)
+			.append("check", new Document("timestamp", new Date(1633965974000L))
+					.append("external_id", "17052917561851307")
+					.append("is_bso", false)
+					.append("receipt", new Document("total", 4300.0)
+							.append("items", Arrays.asList(new Document("price", 2300.0).append("quantity", 1L),
+									new Document("price", 2000.5).append("vat", new Document("type", "vat20"))))
+							.append("payments", Collections.emptyList())))
+			.append("_version", 2L)
+			.append("deleted", null);
+
+	@RestController
+	static class PageController {
+		@GetMapping(path = "/page", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+		Flux<Document> page() {
+			return Flux.just(new Document("_id", FIRST), new Document("_id", SECOND));
+		}
+
+		@GetMapping(path = "/documents", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+		Flux<Document> documents(@RequestParam int count) {
+			return Flux.range(0, count).map(i -> CHECK);
+		}
+
+		@GetMapping(path = "/raw", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+		Flux<RawBsonDocument> raw(@RequestParam int count) {
+			return Flux.range(0, count).map(i -> new RawBsonDocument(CHECK, new DocumentCodec()));
+		}
+
+		@GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+		Flux<ServerSentEvent<Document>> events() {
+			return Flux.just(ServerSentEvent.builder(new Document("_id", FIRST)).id(FIRST.toHexString()).build());
+		}
+	}
+
+	private final WebTestClient client = WebFluxTestClient.bindToController(new PageController());
+
+	private String get(String uri, MediaType accept) {
+		return client.get().uri(uri)
+				.accept(accept)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody(String.class)
+				.returnResult().getResponseBody();
+	}
+
+	@Test
+	void rawDocumentIsWrittenLikeDocument() {
+		for (int count = 0; count < 3; count++) {
+			assertEquals(get("/documents?count=" + count, MediaType.APPLICATION_JSON),
+					get("/raw?count=" + count, MediaType.APPLICATION_JSON));
+			assertEquals(get("/documents?count=" + count, MediaType.APPLICATION_NDJSON),
+					get("/raw?count=" + count, MediaType.APPLICATION_NDJSON));
+		}
+	}
+
+	@Test
+	void serverSentEventDataIsWrittenByJackson() {
+		assertEquals("id:" + FIRST + "\ndata:{\"_id\":\"" + FIRST + "\"}\n\n", get("/events", MediaType.TEXT_EVENT_STREAM));
+	}
+
+	@Test
+	void objectIdIsWrittenAsHexStringInNdjson() {
+		String body = get("/page", MediaType.APPLICATION_NDJSON);
+		assertEquals("{\"_id\":\"" + FIRST + "\"}\n{\"_id\":\"" + SECOND + "\"}\n", body);
+	}
+}
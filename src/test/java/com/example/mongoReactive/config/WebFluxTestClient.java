@@ -0,0 +1,15 @@
+package com.example.mongoReactive.config;
+
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+public final class WebFluxTestClient {
+
+	private WebFluxTestClient() {
+	}
+
+	public static WebTestClient bindToController(Object... controllers) {
+		return WebTestClient.bindToController(controllers)
+				.httpMessageCodecs(new WebFluxConfig()::configureHttpMessageCodecs)
+				.build();
+	}
+}
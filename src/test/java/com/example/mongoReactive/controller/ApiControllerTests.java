@@ -0,0 +1,50 @@
+package com.example.mongoReactive.controller;
+
+import com.example.mongoReactive.config.WebFluxTestClient;
+import com.example.mongoReactive.repository.CheckRepository;
+import com.example.mongoReactive.service.ChecksService;
+import com.example.mongoReactive.util.BoundedScheduler;
+import com.example.mongoReactive.util.ConnectionPoolStatistics;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import static org.mockito.Mockito.*;
+
+class ApiControllerTests {
+
+	private final String id = new ObjectId().toHexString();
+	private final CheckRepository checkRepository = mock(CheckRepository.class);
+	private final WebTestClient client = WebFluxTestClient.bindToController(new ApiController(checkRepository,
+			new ChecksService(), mock(BoundedScheduler.class), new ConnectionPoolStatistics()));
+
+	@Test
+	void checkIsNotModifiedWhenVersionMatches() throws Exception {
+		when(checkRepository.findRawById(id)).thenReturn(Mono.just(new RawBsonDocument(
+				new Document("check", "x").append("_version", 3L), new DocumentCodec())));
+		client.get().uri("/api/checks/{id}", id)
+				.header("If-None-Match", "\"3\"")
+				.exchange()
+				.expectStatus().isNotModified()
+				.expectHeader().valueEquals("ETag", "\"3\"")
+				.expectBody().isEmpty();
+		verify(checkRepository, times(1)).findRawById(id);
+	}
+
+	@Test
+	void checkIsReturnedWithETagWhenVersionChanged() throws Exception {
+		when(checkRepository.findRawById(id)).thenReturn(Mono.just(new RawBsonDocument(
+				new Document("check", "x").append("_version", 4L), new DocumentCodec())));
+		client.get().uri("/api/checks/{id}", id)
+				.header("If-None-Match", "\"3\"")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("ETag", "\"4\"")
+				.expectBody().jsonPath("$[0].check").isEqualTo("x").jsonPath("$[0]._version").isEqualTo(4);
+		verify(checkRepository, times(1)).findRawById(id);
+	}
+}
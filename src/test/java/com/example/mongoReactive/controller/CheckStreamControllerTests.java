@@ -0,0 +1,36 @@
+package com.example.mongoReactive.controller;
+
+import com.example.mongoReactive.config.WebFluxTestClient;
+import com.example.mongoReactive.service.CheckStreamService;
+import com.example.mongoReactive.util.RawBsonJsonEncoder;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class CheckStreamControllerTests {
+
+	private final ObjectId id = new ObjectId();
+	private final CheckStreamService checkStreamService = mock(CheckStreamService.class);
+	private final WebTestClient client = WebFluxTestClient.bindToController(new CheckStreamController(checkStreamService,
+			RawBsonJsonEncoder.Format.COMPATIBLE));
+
+	@Test
+	void checkIsSentAsServerSentEventWithItsId() throws Exception {
+		when(checkStreamService.stream(id.toHexString())).thenReturn(Flux.just(RawBsonDocument.parse(
+				"{\"_id\": {\"$oid\": \"" + id + "\"}, \"check\": {\"total\": 4300.0}}")));
+		String body = client.get().uri("/api/checks/stream")
+				.header("Last-Event-ID", id.toHexString())
+				.accept(MediaType.TEXT_EVENT_STREAM)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody(String.class)
+				.returnResult().getResponseBody();
+		assertEquals("id:" + id + "\ndata:{\"_id\":\"" + id + "\",\"check\":{\"total\":4300.0}}\n\n", body);
+	}
+}
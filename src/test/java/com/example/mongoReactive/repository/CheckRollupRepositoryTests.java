@@ -0,0 +1,112 @@
+package com.example.mongoReactive.repository;
+
+import com.example.mongoReactive.config.MongoConfig;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CheckRollupRepositoryTests {
+
+	private static final ZoneId ZONE = ZoneId.of("Europe/Moscow");
+
+	private static BsonDocument check(long timestamp, String operation, double total, double vat) {
+		return new Document("check", new Document("timestamp", new Date(timestamp))
+				.append("receipt", new Document("operation", operation)
+						.append("company", new Document("inn", "3773737737"))
+						.append("total", total)
+						.append("vats", Arrays.asList(
+								new Document("type", "vat20").append("sum", vat),
+								new Document("type", "vat20").append("sum", 1.0),
+								new Document("type", "none").append("sum", 0.0)))))
+				.toBsonDocument();
+	}
+
+	private static BsonDocument key(String day, String operation) {
+		return BsonDocument.parse("{\"inn\": \"3773737737\", \"day\": \"" + day + "\", \"operation\": \"" + operation + "\"}");
+	}
+
+	@Test
+	void insertedCheckIsAddedToItsDay() {
+		// 2021-10-11T22:30:00Z - уже 12 октября по московскому времени
+		Map<BsonDocument, BsonDocument> increments = CheckRollupRepository.increments(null,
+				check(1633991400000L, "sell", 4300.0, 400.0), ZONE);
+		assertEquals(1, increments.size());
+		assertEquals(BsonDocument.parse("{\"count\": 1, \"total\": 4300.0, \"vat.vat20\": 401.0, \"vat.none\": 0.0}"),
+				increments.get(key("2021-10-12", "sell")));
+	}
+
+	@Test
+	void updatedCheckAppliesDelta() {
+		BsonDocument before = check(1633965974000L, "sell", 4300.0, 400.0);
+		Map<BsonDocument, BsonDocument> increments = CheckRollupRepository.increments(before,
+				check(1633965974000L, "sell", 4500.0, 450.0), ZONE);
+		assertEquals(BsonDocument.parse("{\"count\": {\"$numberLong\": \"0\"}, \"total\": 200.0, \"vat.vat20\": 50.0, \"vat.none\": 0.0}"),
+				increments.get(key("2021-10-11", "sell")));
+
+		increments = CheckRollupRepository.increments(before, check(1633965974000L, "refund", 4300.0, 400.0), ZONE);
+		assertEquals(-1, increments.get(key("2021-10-11", "sell")).getInt32("count").getValue());
+		assertEquals(1, increments.get(key("2021-10-11", "refund")).getInt32("count").getValue());
+
+		assertTrue(CheckRollupRepository.increments(before, before.clone(), ZONE).isEmpty());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void checkRejectedByExternalIdIsNotAddedToRollups() {
+		ObjectId stored = new ObjectId();
+		MongoCollection<Document> checks = mock(MongoCollection.class);
+		MongoCollection<BsonDocument> bsonChecks = mock(MongoCollection.class);
+		MongoCollection<Document> rollups = mock(MongoCollection.class);
+		FindPublisher<Document> find = mock(FindPublisher.class);
+		when(checks.withDocumentClass(BsonDocument.class)).thenReturn(bsonChecks);
+		when(bsonChecks.findOneAndUpdate(any(Bson.class), any(Bson.class), any(FindOneAndUpdateOptions.class)))
+				.thenReturn(Mono.error(new MongoCommandException(
+								BsonDocument.parse("{\"ok\": 0, \"code\": 11000, \"errmsg\": \"E11000 duplicate key error\"}"),
+								new ServerAddress())),
+						Mono.empty());
+		when(checks.find(any(Bson.class))).thenReturn(find);
+		when(find.projection(any())).thenReturn(find);
+		when(find.first()).thenReturn(Mono.just(new Document("_id", stored)));
+		CheckRepository checkRepository = new CheckRepository(mock(MongoConfig.class)) {
+			@Override
+			public MongoCollection<Document> getCollection() {
+				return checks;
+			}
+		};
+		new CheckRollupRepository(checkRepository, true, "check_daily", "Europe/Moscow") {
+			@Override
+			public MongoCollection<Document> getCollection() {
+				return rollups;
+			}
+		};
+
+		BsonDocument document = check(1633965974000L, "sell", 4300.0, 400.0);
+		document.getDocument("check").put("external_id", new BsonString("17052917561851307"));
+		RawBsonDocument check = new RawBsonDocument(document, new BsonDocumentCodec());
+		assertEquals(new Document("Duplicate", stored.toString()),
+				checkRepository.save(new Document("_id", new ObjectId()), check).block());
+		verify(rollups, never()).updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class));
+	}
+}
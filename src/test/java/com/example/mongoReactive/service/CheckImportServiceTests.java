@@ -0,0 +1,68 @@
+package com.example.mongoReactive.service;
+
+import com.example.mongoReactive.repository.CheckRepository;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+class CheckImportServiceTests {
+
+	@TempDir
+	Path directory;
+
+	private final CheckRepository checkRepository = mock(CheckRepository.class);
+
+	private CheckImportService importService() {
+		CheckImportService service = new CheckImportService(checkRepository, new ChecksService());
+		ReflectionTestUtils.setField(service, "directory", directory.toString());
+		ReflectionTestUtils.setField(service, "batchSize", 2);
+		return service;
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void importIsRestartedFromJournal() throws Exception {
+		String check = new String(Files.readAllBytes(Paths.get("src/test/data/check.xml")), StandardCharsets.UTF_8);
+		Files.createDirectory(directory.resolve("2021"));
+		Files.write(directory.resolve("a.xml"), check.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("2021").resolve("b.xml"), check.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("broken.xml"), "<main><check></main>".getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("readme.txt"), "not a check".getBytes(StandardCharsets.UTF_8));
+		when(checkRepository.saveAll(anyList())).thenAnswer(invocation -> Mono.just(
+				((List<RawBsonDocument>) invocation.getArgument(0)).stream()
+						.map(document -> new Document("Inserted", "id"))
+						.collect(Collectors.toList())));
+
+		CheckImportService service = importService();
+		Document statistics = service.importDirectory().block();
+		assertEquals(3L, statistics.get("files"));
+		assertEquals(2L, statistics.get("inserted"));
+		assertEquals(1L, statistics.get("failed"));
+		assertEquals(1, service.getExitCode());
+		assertEquals(Arrays.asList("2021" + directory.getFileSystem().getSeparator() + "b.xml", "a.xml"),
+				Files.readAllLines(directory.resolve(".import-done")).stream().sorted().collect(Collectors.toList()));
+		assertTrue(Files.readAllLines(directory.resolve(".import-failed")).get(0).startsWith("broken.xml\t"));
+
+		statistics = importService().importDirectory().block();
+		assertEquals(2L, statistics.get("skipped"));
+		assertEquals(0L, statistics.get("inserted"));
+		assertEquals(1L, statistics.get("failed"));
+		verify(checkRepository, times(1)).saveAll(anyList());
+	}
+}
@@ -0,0 +1,82 @@
+package com.example.mongoReactive.service;
+
+import com.example.mongoReactive.repository.CheckRepository;
+import com.example.mongoReactive.service.CheckStreamService.Overflow;
+import com.example.mongoReactive.service.CheckStreamService.Source;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.*;
+
+class CheckStreamServiceTests {
+
+	private final CheckRepository checkRepository = mock(CheckRepository.class);
+
+	private static BsonDocument check(String externalId) {
+		return new BsonDocument("check", new BsonDocument("external_id", new BsonString(externalId)));
+	}
+
+	private static String externalId(RawBsonDocument event) {
+		return event.getDocument("check").getString("external_id").getValue();
+	}
+
+	@Test
+	void resumedStreamReplaysSavedChecksBeforeNewOnes() throws Exception {
+		ObjectId after = new ObjectId();
+		ObjectId id = new ObjectId();
+		RawBsonDocument saved = RawBsonDocument.parse("{\"_id\": {\"$oid\": \"" + new ObjectId() + "\"}, \"check\": {\"external_id\": \"saved\"}}");
+		when(checkRepository.findPage(after.toHexString(), Integer.MAX_VALUE, Collections.emptyList()))
+				.thenReturn(Flux.just(saved));
+		CheckStreamService service = new CheckStreamService(checkRepository, Source.SINK, 16, Overflow.DROP_OLDEST);
+		assertFalse(service.isActive());
+
+		StepVerifier.create(service.stream(after.toHexString()))
+				.expectNext(saved)
+				.then(() -> service.changed(new BsonObjectId(id), null, check("new")).block())
+				.assertNext(event -> {
+					assertEquals(id, event.getObjectId("_id").getValue());
+					assertEquals("new", externalId(event));
+				})
+				.thenCancel()
+				.verify();
+		assertFalse(service.isActive());
+	}
+
+	@Test
+	void slowSubscriberLosesOldestChecksOrIsDisconnected() throws Exception {
+		CheckStreamService service = new CheckStreamService(checkRepository, Source.SINK, 2, Overflow.DROP_OLDEST);
+		StepVerifier.create(service.stream(""), 0)
+				.then(() -> {
+					for (int i = 1; i <= 4; i++)
+						service.changed(new BsonObjectId(), null, check("" + i)).block();
+				})
+				.thenRequest(10)
+				.assertNext(event -> assertEquals("3", externalId(event)))
+				.assertNext(event -> assertEquals("4", externalId(event)))
+				.thenCancel()
+				.verify();
+		assertEquals(2L, service.getStatistics().get("dropped"));
+
+		CheckStreamService disconnecting = new CheckStreamService(checkRepository, Source.SINK, 1, Overflow.DISCONNECT);
+		StepVerifier.create(disconnecting.stream(""), 0)
+				.then(() -> {
+					for (int i = 1; i <= 2; i++)
+						disconnecting.changed(new BsonObjectId(), null, check("" + i)).block();
+				})
+				.thenRequest(10)
+				.expectNextCount(1)
+				.expectError()
+				.verify();
+		assertEquals(1L, disconnecting.getStatistics().get("disconnected"));
+	}
+}
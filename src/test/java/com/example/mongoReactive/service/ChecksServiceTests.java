@@ -0,0 +1,191 @@
+package com.example.mongoReactive.service;
+
+import com.example.mongoReactive.util.ConvertDataException;
+import com.example.mongoReactive.util.NumberConverter.NumberType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksServiceTests {
+
+	private final ChecksService checksService = new ChecksService();
+
+	@Test
+	void xml2DocumentSampleCheck() throws Exception {
+		String xml = new String(Files.readAllBytes(Paths.get("src/test/data/check.xml")), StandardCharsets.UTF_8);
+		Document expected = Document.parse("{\"check\": {\"timestamp\": \"11.10.2021 18:26:14\", " +
+				"\"external_id\": \"4f444abd-6b15-495f-8799-fa5601949381\", \"is_bso\": false, " +
+				"\"receipt\": {\"operation\": \"sell\", \"client\": {\"email\": \"test@test.ru\"}, " +
+				"\"company\": {\"email\": \"test@test.ru\", \"sno\": \"osn\", \"inn\": \"3773737737\", " +
+				"\"payment_address\": \"HTTPS://GOSPAY.RU\"}, " +
+				"\"items\": [{\"name\": \"Оплата услуги\", \"price\": 2300.0, \"quantity\": 1.0, \"sum\": 2300.0, " +
+				"\"measurement_unit\": \"Ед.\", \"payment_method\": \"full_payment\", \"payment_object\": \"service\", " +
+				"\"vat\": {\"type\": \"vat20\", \"sum\": 400.9}}, " +
+				"{\"name\": \"Оплата услуги\", \"price\": 2000.0, \"quantity\": 1.0, \"sum\": 2000.0, " +
+				"\"measurement_unit\": \"Ед.\", \"payment_method\": \"full_payment\", \"payment_object\": \"service\", " +
+				"\"vat\": {\"type\": \"vat20\", \"sum\": 333.34}}], " +
+				"\"payments\": [{\"type\": \"1\", \"sum\": 2300.0}, {\"type\": \"1\", \"sum\": 2000.0}], " +
+				"\"vats\": [{\"type\": \"vat20\", \"sum\": 400.9}, {\"type\": \"vat20\", \"sum\": 333.34}], " +
+				"\"total\": 4300.0, \"cashier\": \"Максимова Инна Александровна\"}}}");
+		assertEquals(expected, checksService.xml2Document(xml, "check.xml", null));
+	}
+
+	@Test
+	void xml2DocumentSingleElements() throws Exception {
+		String xml = "<main><check><timestamp>1</timestamp><receipt><items><item><price>1</price></item></items>" +
+				"<payments><payment><sum>2</sum></payment></payments><foo>x</foo></receipt></check></main>";
+		Document expected = Document.parse("{\"check\": {\"timestamp\": \"1\", " +
+				"\"receipt\": {\"items\": [{\"price\": 1.0}], \"payments\": [{\"sum\": 2.0}]}}}");
+		assertEquals(expected, checksService.xml2Document(xml, "check.xml", null));
+	}
+
+	@Test
+	void xml2DocumentNumberTypes() throws Exception {
+		Map<String, NumberType> numberTypes = new HashMap<>();
+		numberTypes.put("price", NumberType.MINOR_UNITS);
+		numberTypes.put("sum", NumberType.DECIMAL128);
+		numberTypes.put("total", NumberType.DECIMAL128);
+		ChecksService service = new ChecksService(numberTypes);
+		String xml = new String(Files.readAllBytes(Paths.get("src/test/data/check.xml")), StandardCharsets.UTF_8);
+		Document receipt = service.xml2Document(xml, "check.xml", null).get("check", Document.class)
+				.get("receipt", Document.class);
+		Document item = receipt.getList("items", Document.class).get(0);
+		assertEquals(230000L, item.get("price"));
+		assertEquals(1.0, item.get("quantity"));
+		assertEquals(new Decimal128(new BigDecimal("400.90")), item.get("vat", Document.class).get("sum"));
+		assertEquals(new Decimal128(new BigDecimal("4300.00")), receipt.get("total"));
+		RawBsonDocument raw = service.xml2RawDocument(xml, "check.xml", null);
+		assertEquals(receipt, raw.decode(new DocumentCodec()).get("check", Document.class).get("receipt", Document.class));
+	}
+
+	@Test
+	void xml2DocumentTimestampAsDate() throws Exception {
+		ChecksService service = new ChecksService(new HashMap<>(), "dd.MM.yyyy HH:mm:ss", "Europe/Moscow");
+		String xml = new String(Files.readAllBytes(Paths.get("src/test/data/check.xml")), StandardCharsets.UTF_8);
+		Date expected = Date.from(Instant.parse("2021-10-11T15:26:14Z"));
+		assertEquals(expected, service.xml2Document(xml, "check.xml", null).get("check", Document.class).get("timestamp"));
+		RawBsonDocument raw = service.xml2RawDocument(xml, "check.xml", null);
+		assertEquals(expected, raw.decode(new DocumentCodec()).get("check", Document.class).get("timestamp"));
+	}
+
+	@Test
+	void attributeStatisticsCountsUnknownAndUnconvertible() throws Exception {
+		String xml = "<main><check><receipt><foo>x</foo><foo>y</foo><total>abc</total></receipt></check></main>";
+		ConvertDataException e = assertThrows(ConvertDataException.class,
+				() -> checksService.xml2Document(xml, "check.xml", null));
+		assertEquals("check\\receipt", e.getPath());
+		assertEquals("total", e.getKey());
+		Document statistics = checksService.getAttributeStatistics().getStatistics();
+		assertEquals(2L, statistics.get("unknown", Document.class).get("check\\receipt\\foo"));
+		assertEquals(1L, statistics.get("unconvertible", Document.class).get("check\\receipt\\total"));
+	}
+
+	@Test
+	void xml2RawDocumentMatchesDocument() throws Exception {
+		String xml = new String(Files.readAllBytes(Paths.get("src/test/data/check.xml")), StandardCharsets.UTF_8);
+		Document expected = checksService.xml2Document(xml, "check.xml", null);
+		assertEquals(expected.toJson(), checksService.xml2RawDocument(xml, "check.xml", null).decode(new DocumentCodec()).toJson());
+	}
+
+	@Test
+	void xml2RawDocumentWithRepeatedAttributeMatchesDocument() throws Exception {
+		String xml = "<main><check><external_id>1</external_id><is_bso>false</is_bso><external_id>2</external_id>"
+				+ "</check></main>";
+		Document expected = checksService.xml2Document(xml, "check.xml", null);
+		assertEquals("2", expected.get("check", Document.class).get("external_id"));
+		assertEquals(new RawBsonDocument(expected, new DocumentCodec()).getByteBuffer().asNIO(),
+				checksService.xml2RawDocument(xml, "check.xml", null).getByteBuffer().asNIO());
+	}
+
+	@Test
+	void xml2RawDocumentWithRepeatedNodeMatchesDocument() throws Exception {
+		String xml = "<main><check><receipt><company><email>a@test.ru</email><sno>osn</sno></company>"
+				+ "<client><email>c@test.ru</email></client>"
+				+ "<company><inn>3773737737</inn><email>b@test.ru</email></company></receipt>"
+				+ "<external_id>1</external_id></check></main>";
+		Document expected = checksService.xml2Document(xml, "check.xml", null);
+		assertEquals("3773737737", expected.get("check", Document.class).get("receipt", Document.class)
+				.get("company", Document.class).get("inn"));
+		assertEquals(expected.toJson(), checksService.xml2RawDocument(xml, "check.xml", null).decode(new DocumentCodec()).toJson());
+		StepVerifier.create(checksService.xml2RawDocument(split(xml.getBytes(StandardCharsets.UTF_8), 7), "check.xml", null)
+						.map(raw -> raw.decode(new DocumentCodec())))
+				.expectNext(expected)
+				.verifyComplete();
+	}
+
+	@Test
+	void xml2DocumentFromDataBuffers() throws Exception {
+		byte[] xml = Files.readAllBytes(Paths.get("src/test/data/check.xml"));
+		Document expected = checksService.xml2Document(new String(xml, StandardCharsets.UTF_8), "check.xml", null);
+		StepVerifier.create(checksService.xml2Document(split(xml, 7), "check.xml", null))
+				.expectNext(expected)
+				.verifyComplete();
+		StepVerifier.create(checksService.xml2RawDocument(split(xml, 7), "check.xml", null)
+						.map(raw -> raw.decode(new DocumentCodec())))
+				.expectNext(expected)
+				.verifyComplete();
+	}
+
+	@Test
+	void xml2DocumentFromDataBuffersFailsEarly() {
+		byte[] xml = "<main><check><timestamp>1</timestamp></receipt></check></main>".getBytes(StandardCharsets.UTF_8);
+		StepVerifier.create(checksService.xml2Document(split(xml, 5), "check.xml", null))
+				.expectError(IOException.class)
+				.verify();
+		byte[] large = new byte[2 * 1024 * 1024];
+		Arrays.fill(large, (byte) ' ');
+		System.arraycopy("<main>".getBytes(StandardCharsets.UTF_8), 0, large, 0, 6);
+		StepVerifier.create(checksService.xml2Document(split(large, 8192), "check.xml", null))
+				.expectError(DataBufferLimitException.class)
+				.verify();
+	}
+
+	@Test
+	void xml2RawDocumentsFromBatch() {
+		String xml = "<main><check><timestamp>1</timestamp></check>" +
+				"<check><receipt><total>abc</total></receipt></check>" +
+				"<check><timestamp>3</timestamp></check>" +
+				"<foo><timestamp>4</timestamp></foo><check></check></main>";
+		StepVerifier.create(checksService.xml2RawDocuments(split(xml.getBytes(StandardCharsets.UTF_8), 10), "batch.xml"))
+				.assertNext(result -> assertEquals(Document.parse("{\"check\": {\"timestamp\": \"1\"}}"),
+						((RawBsonDocument) result.getReceiverObject()).decode(new DocumentCodec())))
+				.assertNext(result -> assertTrue(result.getError() instanceof ConvertDataException))
+				.assertNext(result -> assertEquals(Document.parse("{\"check\": {\"timestamp\": \"3\"}}"),
+						((RawBsonDocument) result.getReceiverObject()).decode(new DocumentCodec())))
+				.assertNext(result -> assertEquals("Element 3 is not a check", result.getError().getMessage()))
+				.assertNext(result -> assertEquals("Element 4 is not a check", result.getError().getMessage()))
+				.verifyComplete();
+	}
+
+	private static Flux<DataBuffer> split(byte[] bytes, int size) {
+		List<DataBuffer> buffers = new ArrayList<>();
+		for (int i = 0; i < bytes.length; i += size) {
+			buffers.add(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, i, Math.min(i + size, bytes.length))));
+		}
+		return Flux.fromIterable(buffers);
+	}
+}
@@ -0,0 +1,40 @@
+package com.example.mongoReactive.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTests {
+
+	@Test
+	void addedKeysAreFoundAndFalsePositivesAreRare() {
+		BloomFilter filter = new BloomFilter(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			filter.add("external-" + i);
+		}
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(filter.mightContain("external-" + i));
+		}
+		int falsePositives = 0;
+		for (int i = 10_000; i < 20_000; i++) {
+			if (filter.mightContain("external-" + i)) falsePositives++;
+		}
+		assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+	}
+
+	@Test
+	void filterIsClearedWhenCapacityIsExceeded() {
+		BloomFilter filter = new BloomFilter(100, 0.01);
+		for (int i = 0; i < 100; i++) {
+			filter.add("external-" + i);
+		}
+		filter.add("external-100");
+		assertTrue(filter.mightContain("external-100"));
+		int found = 0;
+		for (int i = 0; i < 100; i++) {
+			if (filter.mightContain("external-" + i)) found++;
+		}
+		assertFalse(found > 10, "found after clear: " + found);
+	}
+}
@@ -0,0 +1,83 @@
+package com.example.mongoReactive.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DocumentBuilderTests {
+
+	@Test
+	void forEachNodeDeepDocument() throws Exception {
+		Document root = new Document();
+		Document node = root;
+		for(int i = 0; i < 100000; i++) {
+			Document child = new Document();
+			node.append("n", child);
+			node = child;
+		}
+		node.append("value", 1);
+		int[] count = {0};
+		ValueReceiver receiver = new ValueReceiver() {
+			public ValueReceiver receive(Context ctx) {
+				count[0]++;
+				return this;
+			}
+		};
+		forEachNode(root, "deep", receiver, null);
+		assertEquals(100002, count[0]);
+	}
+
+	@Test
+	void forEachNodeArrayKeysAndPaths() throws Exception {
+		JsonNode rootNode = new ObjectMapper().readTree("{\"a\": [{\"b\": 1}, {\"b\": 2}]}");
+		Document document = Document.parse("{\"a\": [{\"b\": 1}, {\"b\": 2}]}");
+		for(Object root : Arrays.asList(rootNode, document)) {
+			List<String> paths = new ArrayList<>();
+			ValueReceiver receiver = new ValueReceiver() {
+				public ValueReceiver receive(Context ctx) {
+					paths.add(ctx.getPath() + "\\" + ctx.getKey());
+					return this;
+				}
+			};
+			if(root instanceof JsonNode) forEachNode((JsonNode)root, "", receiver, null);
+			else forEachNode((Document)root, "", receiver, null);
+			assertEquals(Arrays.asList("\\", "\\a", "\\a\\0", "\\a\\0\\b", "\\a\\1", "\\a\\1\\b"), paths);
+		}
+	}
+
+	@Test
+	void appendNotExistsInDocument() throws Exception {
+		Document source = Document.parse("{\"a\": {\"b\": 1, \"c\": [1, 2]}, \"d\": [{\"e\": 1}]}");
+		Document target = Document.parse("{\"a\": {\"b\": 5}, \"d\": [{\"f\": 2}]}");
+		Document expected = Document.parse("{\"a\": {\"b\": 5, \"c\": [1, 2]}, \"d\": [{\"f\": 2, \"e\": 1}]}");
+		assertEquals(expected, DocumentBuilder.appendNotExistsInDocument(source, target));
+	}
+
+	@Test
+	void mergePlanReusedForManyDocuments() {
+		Document template = Document.parse("{\"a\": {\"b\": 1, \"c\": [1, 2]}, \"d\": [{\"e\": 1}, {\"e\": 2}], \"g\": 3}");
+		MergePlan plan = MergePlan.compile(template);
+		template.append("h", 4);
+		Document first = plan.apply(Document.parse("{\"a\": 5, \"d\": [{\"f\": 2}]}"));
+		assertEquals(Document.parse("{\"a\": 5, \"d\": [{\"f\": 2, \"e\": 1}, {\"e\": 2}], \"g\": 3}"), first);
+		Document second = plan.apply(new Document());
+		second.get("a", Document.class).getList("c", Integer.class).add(3);
+		Document third = plan.apply(new Document("g", "x"));
+		assertEquals(Document.parse("{\"g\": \"x\", \"a\": {\"b\": 1, \"c\": [1, 2]}, \"d\": [{\"e\": 1}, {\"e\": 2}]}"), third);
+	}
+
+	@Test
+	void mergePlanSetsNullListElementsInPlace() {
+		MergePlan plan = MergePlan.compile(Document.parse("{\"d\": [{\"e\": 1}, {\"e\": 2}, {\"e\": 3}]}"));
+		Document target = Document.parse("{\"d\": [null, {\"f\": 2}]}");
+		assertEquals(Document.parse("{\"d\": [{\"e\": 1}, {\"f\": 2, \"e\": 2}, {\"e\": 3}]}"), plan.apply(target));
+	}
+}
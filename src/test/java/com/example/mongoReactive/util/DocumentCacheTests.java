@@ -0,0 +1,64 @@
+package com.example.mongoReactive.util;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DocumentCacheTests {
+
+	private static RawBsonDocument document(int value) {
+		return new RawBsonDocument(new Document("value", value), new DocumentCodec());
+	}
+
+	@Test
+	void loadsOnceAndEvictsLeastRecentlyUsed() {
+		DocumentCache cache = new DocumentCache(2, Long.MAX_VALUE, Duration.ofMinutes(1));
+		AtomicInteger loads = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(document(1), cache.get(1, () -> Mono.fromSupplier(() -> document(loads.incrementAndGet()))).block());
+		}
+		cache.get(2, () -> Mono.just(document(2))).block();
+		cache.get(1, () -> Mono.just(document(-1))).block();
+		cache.get(3, () -> Mono.just(document(3))).block();
+		assertEquals(document(1), cache.get(1, () -> Mono.just(document(-1))).block());
+		assertEquals(document(22), cache.get(2, () -> Mono.just(document(22))).block());
+		Document statistics = cache.getStatistics();
+		assertEquals(4L, statistics.get("hits"));
+		assertEquals(4L, statistics.get("misses"));
+		assertEquals(2L, statistics.get("evictions"));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void documentLoadedBeforeInvalidateIsNotCached() {
+		DocumentCache cache = new DocumentCache(10, Long.MAX_VALUE, Duration.ofMinutes(1));
+		Sinks.One<RawBsonDocument> load = Sinks.one();
+		Mono<RawBsonDocument> stale = cache.get(1, load::asMono).cache();
+		stale.subscribe();
+		cache.invalidate(1);
+		load.tryEmitValue(document(1));
+		assertEquals(document(1), stale.block());
+		assertEquals(document(2), cache.get(1, () -> Mono.just(document(2))).block());
+	}
+
+	@Test
+	void invalidateOfOtherDocumentDoesNotDiscardLoad() {
+		DocumentCache cache = new DocumentCache(10, Long.MAX_VALUE, Duration.ofMinutes(1));
+		Sinks.One<RawBsonDocument> load = Sinks.one();
+		Mono<RawBsonDocument> loaded = cache.get(1, load::asMono).cache();
+		loaded.subscribe();
+		cache.invalidate(2);
+		load.tryEmitValue(document(1));
+		assertEquals(document(1), loaded.block());
+		assertEquals(document(1), cache.get(1, () -> Mono.just(document(-1))).block());
+		assertEquals(1L, cache.getStatistics().get("hits"));
+	}
+}
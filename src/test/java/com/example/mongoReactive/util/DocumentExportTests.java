@@ -0,0 +1,80 @@
+package com.example.mongoReactive.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.bson.BsonBinaryReader;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentExportTests {
+
+	private static final int COUNT = 50_000;
+
+	private static Flux<RawBsonDocument> checks() {
+		return Flux.range(0, COUNT).map(i -> RawBsonDocument.parse(
+				"{\"_id\": " + i + ", \"check\": {\"external_id\": \"" + (i * 7919L) + "\", \"total\": " + i + ".5}}"));
+	}
+
+	private static byte[] export(DocumentExport export, List<Integer> chunkSizes) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (DataBuffer buffer : export.write(checks(), DefaultDataBufferFactory.sharedInstance).collectList().block()) {
+			chunkSizes.add(buffer.readableByteCount());
+			byte[] chunk = new byte[buffer.readableByteCount()];
+			buffer.read(chunk);
+			DataBufferUtils.release(buffer);
+			bytes.write(chunk);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	void bsonDumpIsCompressedInChunks() throws Exception {
+		List<Integer> chunkSizes = new ArrayList<>();
+		DocumentExport export = new DocumentExport(DocumentExport.Format.BSON, DocumentExport.Compression.GZIP, null);
+		byte[] compressed = export(export, chunkSizes);
+		assertEquals("checks.bson.gz", export.getFileName("checks"));
+		assertTrue(chunkSizes.size() > 1);
+
+		ByteBuffer dump;
+		try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			dump = ByteBuffer.wrap(input.readAllBytes());
+		}
+		List<RawBsonDocument> documents = new ArrayList<>();
+		while (dump.hasRemaining()) {
+			try (BsonBinaryReader reader = new BsonBinaryReader(dump)) {
+				documents.add(new RawBsonDocumentCodec().decode(reader, DecoderContext.builder().build()));
+			}
+		}
+		assertEquals(checks().collectList().block(), documents);
+	}
+
+	@Test
+	void ndjsonIsCompressedWithZstd() throws Exception {
+		RawBsonJsonEncoder jsonEncoder = new RawBsonJsonEncoder(RawBsonJsonEncoder.Format.COMPATIBLE);
+		DocumentExport export = new DocumentExport(DocumentExport.Format.NDJSON, DocumentExport.Compression.ZSTD, jsonEncoder);
+		byte[] compressed = export(export, new ArrayList<>());
+		String[] lines;
+		try (InputStream input = new ZstdInputStream(new ByteArrayInputStream(compressed))) {
+			lines = new String(input.readAllBytes(), StandardCharsets.UTF_8).split("\n");
+		}
+		assertEquals(COUNT, lines.length);
+		assertEquals("{\"_id\":49999,\"check\":{\"external_id\":\"395942081\",\"total\":49999.5}}", lines[COUNT - 1]);
+	}
+}
@@ -0,0 +1,41 @@
+package com.example.mongoReactive.util;
+
+import com.example.mongoReactive.util.NumberConverter.NumberType;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static com.example.mongoReactive.util.DocumentBuilder.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NumberConverterTests {
+
+	private final CharsConverter decimal = (CharsConverter)NumberConverter.of(NumberType.DECIMAL128);
+	private final CharsConverter minorUnits = (CharsConverter)NumberConverter.of(NumberType.MINOR_UNITS);
+
+	@Test
+	void convertDecimal128() {
+		assertEquals(new Decimal128(new BigDecimal("2300.00")), decimal.convert(new StringBuilder(" 2300.00\n")));
+		assertEquals(new Decimal128(new BigDecimal("-0.375")), decimal.convert("-0.375"));
+		assertEquals(new Decimal128(new BigDecimal("400")), decimal.convert("+400"));
+		assertEquals(new Decimal128(new BigDecimal("333.34")), decimal.convert("333.34"));
+		assertEquals(new Decimal128(new BigDecimal("999999999999999999")), decimal.convert("999999999999999999"));
+	}
+
+	@Test
+	void convertMinorUnits() {
+		assertEquals(230000L, minorUnits.convert("2300"));
+		assertEquals(40090L, minorUnits.convert("400.9"));
+		assertEquals(-33334L, minorUnits.convert("-333.340"));
+		assertThrows(NumberFormatException.class, () -> minorUnits.convert("0.375"));
+	}
+
+	@Test
+	void convertInvalid() {
+		for(String value : new String[] {"", " ", "-", ".", "1.2.3", "1e3", "12a", "1234567890123456789"}) {
+			assertThrows(NumberFormatException.class, () -> decimal.convert(value), value);
+		}
+	}
+}
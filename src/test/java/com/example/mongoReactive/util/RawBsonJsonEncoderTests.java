@@ -0,0 +1,37 @@
+package com.example.mongoReactive.util;
+
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RawBsonJsonEncoderTests {
+
+	private static String json(RawBsonJsonEncoder.Format format, RawBsonDocument document) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new RawBsonJsonEncoder(format).write(document, output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void decimal128SpecialValuesAreWritten() throws Exception {
+		RawBsonDocument document = new RawBsonDocument(new BsonDocument("nan", new BsonDecimal128(Decimal128.NaN))
+				.append("inf", new BsonDecimal128(Decimal128.POSITIVE_INFINITY))
+				.append("ninf", new BsonDecimal128(Decimal128.NEGATIVE_INFINITY))
+				.append("nzero", new BsonDecimal128(Decimal128.NEGATIVE_ZERO))
+				.append("negative", new BsonDecimal128(new Decimal128(new BigDecimal("-333.34"))))
+				.append("sum", new BsonDecimal128(new Decimal128(new BigDecimal("2300.00")))), new BsonDocumentCodec());
+		assertEquals("{\"nan\":\"NaN\",\"inf\":\"Infinity\",\"ninf\":\"-Infinity\",\"nzero\":-0,"
+						+ "\"negative\":-333.34,\"sum\":2300.00}",
+				json(RawBsonJsonEncoder.Format.COMPATIBLE, document));
+		assertEquals(document.toJson(), json(RawBsonJsonEncoder.Format.RELAXED, document));
+	}
+}
@@ -0,0 +1,117 @@
+package com.example.mongoReactive.util;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Subscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class ReactorRepositoryMongoDBTests {
+
+	private static final MongoWriteException DUPLICATE_KEY = new MongoWriteException(
+			new WriteError(11000, "E11000 duplicate key error", new BsonDocument()), new ServerAddress());
+
+	@SuppressWarnings("unchecked")
+	private final MongoCollection<Document> collection = mock(MongoCollection.class);
+
+	private final ReactorRepositoryMongoDB repository = new ReactorRepositoryMongoDB() {
+		@Override
+		public MongoCollection<Document> getCollection() {
+			return collection;
+		}
+
+		@Override
+		public String getUniqueKey() {
+			return "check.external_id";
+		}
+	};
+
+	private static RawBsonDocument check(String externalId) {
+		return RawBsonDocument.parse("{\"check\": {\"external_id\": \"" + externalId + "\"}}");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void saveWithStoredUniqueValueReturnsDuplicate() {
+		ObjectId stored = new ObjectId();
+		FindPublisher<Document> find = mock(FindPublisher.class);
+		when(find.projection(any())).thenReturn(find);
+		when(find.first()).thenReturn(Mono.just(new Document("_id", stored)));
+		when(collection.find(any(Bson.class))).thenReturn(find);
+		when(collection.updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class)))
+				.thenReturn(Mono.error(DUPLICATE_KEY), Mono.just(UpdateResult.acknowledged(0, 0L, null)));
+		AtomicInteger notified = new AtomicInteger();
+		repository.addChangeListener((id, before, after) -> Mono.fromRunnable(notified::incrementAndGet));
+
+		Document result = repository.save(new Document("_id", new ObjectId()), check("17052917561851307")).block();
+		assertEquals(new Document("Duplicate", stored.toString()), result);
+		assertEquals(0, notified.get());
+
+		when(collection.updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class)))
+				.thenReturn(Mono.error(DUPLICATE_KEY), Mono.just(UpdateResult.acknowledged(0, 0L, null)));
+		when(find.first()).thenReturn(Mono.empty());
+		assertThrows(MongoWriteException.class,
+				() -> repository.save(new Document("_id", new ObjectId()), check("17052917561851307")).block());
+	}
+
+	@Test
+	void saveRacingWithInsertOfSameIdIsUpdated() {
+		ObjectId id = new ObjectId();
+		when(collection.updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class)))
+				.thenReturn(Mono.error(DUPLICATE_KEY), Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+		assertEquals(new Document("Updated", id.toString()),
+				repository.save(new Document("_id", id), check("17052917561851307")).block());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void saveAllWithoutUniqueIndexSkipsSavedAndRepeatedValues() {
+		ObjectId stored = new ObjectId();
+		FindPublisher<Document> find = mock(FindPublisher.class);
+		when(find.projection(any())).thenReturn(find);
+		doAnswer(invocation -> {
+			Flux.just(new Document("_id", stored).append("check", new Document("external_id", "1")))
+					.subscribe(invocation.<Subscriber<Document>>getArgument(0));
+			return null;
+		}).when(find).subscribe(any());
+		when(collection.find(any(Bson.class))).thenReturn(find);
+		MongoCollection<BsonDocument> bsonCollection = mock(MongoCollection.class);
+		when(collection.withDocumentClass(BsonDocument.class)).thenReturn(bsonCollection);
+		when(bsonCollection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+				.thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+		repository.setUniqueFilter(1000, 0.01);
+		repository.setUniqueIndexReady(false);
+
+		List<Document> results = repository.saveAll(Arrays.asList(check("1"), check("2"), check("2"))).block();
+		assertEquals(new Document("Duplicate", stored.toString()), results.get(0));
+		assertEquals(results.get(1).get("Inserted"), results.get(2).get("Duplicate"));
+		ArgumentCaptor<List<WriteModel<BsonDocument>>> requests = ArgumentCaptor.forClass(List.class);
+		verify(bsonCollection).bulkWrite(requests.capture(), any(BulkWriteOptions.class));
+		assertEquals(1, requests.getValue().size());
+	}
+}
@@ -0,0 +1,37 @@
+package com.example.mongoReactive.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequestCollapserTests {
+
+	@Test
+	void concurrentRequestsShareOneQuery() {
+		RequestCollapser<String, String> collapser = new RequestCollapser<>();
+		AtomicInteger queries = new AtomicInteger();
+		Sinks.One<String> result = Sinks.one();
+		Mono<String> first = collapser.get("id", () -> {
+			queries.incrementAndGet();
+			return result.asMono();
+		}).cache();
+		Mono<String> second = collapser.get("id", () -> {
+			queries.incrementAndGet();
+			return Mono.just("other");
+		}).cache();
+		first.subscribe();
+		second.subscribe();
+		result.tryEmitValue("check");
+		assertEquals("check", first.block());
+		assertEquals("check", second.block());
+		assertEquals(1, queries.get());
+		assertEquals(0, collapser.getStatistics().get("inFlight"));
+
+		assertEquals("next", collapser.get("id", () -> Mono.just("next")).block());
+		assertEquals(1L, collapser.getStatistics().get("collapsed"));
+	}
+}
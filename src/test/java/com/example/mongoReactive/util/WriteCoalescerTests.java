@@ -0,0 +1,89 @@
+package com.example.mongoReactive.util;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class WriteCoalescerTests {
+
+	@Test
+	void coalescesConcurrentWrites() {
+		ObjectId insertedByInsert = new ObjectId();
+		ObjectId inserted = new ObjectId();
+		ObjectId updated = new ObjectId();
+		ObjectId duplicate = new ObjectId();
+		ObjectId failed = new ObjectId();
+		MongoCollection<BsonDocument> collection = mock(MongoCollection.class);
+		BulkWriteResult result = BulkWriteResult.acknowledged(0, 1, 0, 1,
+				Collections.singletonList(new BulkWriteUpsert(0, new BsonObjectId(inserted))), Collections.emptyList());
+		List<BulkWriteError> errors = Arrays.asList(
+				new BulkWriteError(11000, "duplicate key", new BsonDocument(), 2),
+				new BulkWriteError(121, "validation", new BsonDocument(), 3));
+		when(collection.bulkWrite(anyList(), any())).thenReturn(Mono.error(new MongoBulkWriteException(
+				result, errors, null, new ServerAddress(), Collections.emptySet())));
+		WriteCoalescer coalescer = new WriteCoalescer(() -> collection, 5, Duration.ofSeconds(10), 1, 100);
+		Function<MongoWriteException, Mono<Document>> onDuplicateKey = e -> e.getCode() == 11000
+				? Mono.just(new Document("Duplicate", inserted.toString()))
+				: Mono.error(e);
+
+		Mono<Document> first = coalescer.upsert(new Document("_id", inserted), new Document("$set", new Document()), onDuplicateKey).cache();
+		Mono<Document> second = coalescer.upsert(new Document("_id", updated), new Document("$set", new Document()), onDuplicateKey).cache();
+		Mono<Document> third = coalescer.upsert(new Document("_id", duplicate), new Document("$set", new Document()), onDuplicateKey).cache();
+		Mono<Document> fourth = coalescer.upsert(new Document("_id", failed), new Document("$set", new Document()), onDuplicateKey).cache();
+		Mono<Document> fifth = coalescer.insert(new BsonDocument("_id", new BsonObjectId(insertedByInsert)), onDuplicateKey).cache();
+		first.subscribe();
+		second.subscribe();
+		third.subscribe();
+		fourth.subscribe(r -> {}, e -> {});
+		fifth.subscribe();
+
+		assertEquals(new Document("Inserted", inserted.toString()), first.block(Duration.ofSeconds(5)));
+		assertEquals(new Document("Updated", updated.toString()), second.block(Duration.ofSeconds(5)));
+		assertEquals(new Document("Duplicate", inserted.toString()), third.block(Duration.ofSeconds(5)));
+		assertThrows(MongoWriteException.class, () -> fourth.block(Duration.ofSeconds(5)));
+		assertEquals(new Document("Inserted", insertedByInsert.toString()), fifth.block(Duration.ofSeconds(5)));
+		verify(collection, times(1)).bulkWrite(anyList(), any());
+		assertEquals(new Document("batches", 1L).append("writes", 5L).append("pending", 0).append("rejected", 0L),
+				coalescer.getStatistics());
+		coalescer.dispose();
+	}
+
+	@Test
+	void rejectsUpsertsWhenQueueIsFull() {
+		MongoCollection<BsonDocument> collection = mock(MongoCollection.class);
+		when(collection.bulkWrite(anyList(), any())).thenReturn(Mono.never());
+		WriteCoalescer coalescer = new WriteCoalescer(() -> collection, 1, Duration.ofSeconds(10), 1, 2);
+		Function<MongoWriteException, Mono<Document>> onDuplicateKey = Mono::error;
+
+		coalescer.upsert(new Document("_id", new ObjectId()), new Document("$set", new Document()), onDuplicateKey).subscribe();
+		coalescer.upsert(new Document("_id", new ObjectId()), new Document("$set", new Document()), onDuplicateKey).subscribe();
+		assertThrows(RejectedExecutionException.class, () -> coalescer.upsert(new Document("_id", new ObjectId()),
+				new Document("$set", new Document()), onDuplicateKey).block(Duration.ofSeconds(5)));
+		assertEquals(2, coalescer.getStatistics().get("pending"));
+		assertEquals(1L, coalescer.getStatistics().get("rejected"));
+		coalescer.dispose();
+	}
+}